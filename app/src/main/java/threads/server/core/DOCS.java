@@ -7,6 +7,8 @@ import android.webkit.WebResourceResponse;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.common.io.ByteStreams;
+
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.BufferedInputStream;
@@ -27,9 +29,12 @@ import threads.lite.cid.Cid;
 import threads.lite.cid.PeerId;
 import threads.lite.core.Closeable;
 import threads.lite.core.ClosedException;
+import threads.lite.dag.MutableDirectory;
 import threads.lite.host.DnsResolver;
 import threads.lite.ipns.Ipns;
 import threads.lite.utils.Link;
+import threads.lite.utils.Reader;
+import threads.lite.utils.ReaderStream;
 import threads.server.R;
 import threads.server.Settings;
 import threads.server.core.books.BOOKS;
@@ -184,6 +189,11 @@ public class DOCS {
     }
 
 
+    // the blocks which are not reachable from a pin are removed in the background
+    public void collectGarbage() {
+        ipfs.gc();
+    }
+
     public String getUniqueName(@NonNull String name, long parent) {
         return getName(name, parent, 0);
     }
@@ -224,6 +234,14 @@ public class DOCS {
         updateParentSize(idx);
     }
 
+    // the content of the directory was committed together with its children, only the
+    // directory itself is updated, the parents are updated with finishDocument
+    public void finishDirectory(long idx, @NonNull Cid content) {
+        threads.setThreadContent(idx, content.String());
+        threads.setThreadSize(idx, threads.getChildrenSummarySize(idx));
+        threads.setThreadLastModified(idx, System.currentTimeMillis());
+    }
+
     private void updateParentSize(long idx) {
         long parent = threads.getThreadParent(idx);
         updateDirectorySize(parent);
@@ -270,11 +288,23 @@ public class DOCS {
             Objects.requireNonNull(dirCid);
             Cid newDir = ipfs.addLinkToDir(dirCid, name, cid);
             Objects.requireNonNull(newDir);
-            pages.setPageContent(ipfs.getPeerID().toBase58(), newDir.String());
+            setLocalPageContent(newDir);
         }
     }
 
 
+    // The root of the local page links all finished documents, it is the pin which
+    // keeps their blocks when a removed document shares subtrees with them
+    private void setLocalPageContent(@NonNull Cid content) {
+        String pid = ipfs.getPeerID().toBase58();
+        String previous = pages.getPageContent(pid);
+        ipfs.pin(content);
+        pages.setPageContent(pid, content.String());
+        if (previous != null) {
+            ipfs.unpin(Cid.decode(previous));
+        }
+    }
+
     private void removeFromParentDocument(long idx) {
 
         Thread child = threads.getThreadByIdx(idx);
@@ -296,7 +326,7 @@ public class DOCS {
                 Objects.requireNonNull(dirCid);
                 Cid newDir = ipfs.rmLinkFromDir(dirCid, name);
                 if (newDir != null) {
-                    pages.setPageContent(ipfs.getPeerID().toBase58(), newDir.String());
+                    setLocalPageContent(newDir);
                 }
             }
         }
@@ -362,29 +392,25 @@ public class DOCS {
                 page = pages.createPage(ipfs.getPeerID().toBase58());
                 Cid dir = ipfs.createEmptyDir();
                 Objects.requireNonNull(dir);
+                ipfs.pin(dir);
                 page.setContent(dir.String());
                 pages.storePage(page);
             }
             // just for backup, in case something happen before
             page = getPinsPage();
             Objects.requireNonNull(page);
-            Cid dir = ipfs.createEmptyDir();
-            Objects.requireNonNull(dir);
+            Cid empty = ipfs.createEmptyDir();
+            Objects.requireNonNull(empty);
+            MutableDirectory dir = ipfs.openDirectory(empty, () -> false);
 
             List<Thread> pins = threads.getPins();
-
-            boolean isEmpty = pins.isEmpty();
-            if (!isEmpty) {
-                for (Thread pin : pins) {
-                    String link = pin.getContent();
-                    Objects.requireNonNull(link);
-                    String name = pin.getName();
-                    dir = ipfs.addLinkToDir(dir, name, Cid.decode(link));
-                    Objects.requireNonNull(dir);
-                }
+            for (Thread pin : pins) {
+                String link = pin.getContent();
+                Objects.requireNonNull(link);
+                String name = pin.getName();
+                dir.addLink(() -> false, name, Cid.decode(link));
             }
-            page.setContent(dir.String());
-            pages.storePage(page);
+            setLocalPageContent(dir.commit(() -> false));
 
             String homepage = getPinsPageUri().toString();
             if( books.getBookmark(homepage) == null) {
@@ -618,6 +644,7 @@ public class DOCS {
     public WebResourceResponse getResponse(@NonNull Context context,
                                            @NonNull Uri uri, @NonNull String root,
                                            @NonNull List<String> paths,
+                                           @Nullable String range,
                                            @NonNull Closeable closeable) throws Exception {
 
         if (paths.isEmpty()) {
@@ -628,7 +655,7 @@ public class DOCS {
                         new ByteArrayInputStream(answer.getBytes()));
             } else {
                 String mimeType = getContentMimeType(context, Cid.decode(root), closeable);
-                return getContentResponse(Cid.decode(root), mimeType, closeable);
+                return getContentResponse(Cid.decode(root), mimeType, range, closeable);
             }
 
 
@@ -645,25 +672,55 @@ public class DOCS {
 
             } else {
                 String mimeType = getMimeType(context, uri, cid, closeable);
-                return getContentResponse(cid, mimeType, closeable);
+                return getContentResponse(cid, mimeType, range, closeable);
             }
         }
     }
 
+    // only the blocks of the requested range are loaded, the reader seeks to the start
     @NonNull
     private WebResourceResponse getContentResponse(@NonNull Cid cid,
                                                    @NonNull String mimeType,
+                                                   @Nullable String range,
                                                    @NonNull Closeable closeable) throws ClosedException {
 
-        try (InputStream in = ipfs.getLoaderStream(cid, closeable)) {
+        try {
+            Reader reader = ipfs.getReader(cid, closeable);
 
             if (closeable.isClosed()) {
                 throw new ClosedException();
             }
 
+            long size = reader.getSize();
             Map<String, String> responseHeaders = new HashMap<>();
-            return new WebResourceResponse(mimeType, Content.UTF8, 200,
-                    "OK", responseHeaders, new BufferedInputStream(in));
+            responseHeaders.put("Accept-Ranges", "bytes");
+
+            if (range == null) {
+                responseHeaders.put("Content-Length", String.valueOf(size));
+                return new WebResourceResponse(mimeType, Content.UTF8, 200,
+                        "OK", responseHeaders, new BufferedInputStream(new ReaderStream(reader)));
+            }
+
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                responseHeaders.put("Content-Range", "bytes */" + size);
+                return new WebResourceResponse(mimeType, Content.UTF8, 416,
+                        "Range Not Satisfiable", responseHeaders,
+                        new ByteArrayInputStream(new byte[0]));
+            }
+            long start = bounds[0];
+            long length = bounds[1] - bounds[0] + 1;
+
+            InputStream in = new ReaderStream(reader);
+            if (in.skip(start) != start) {
+                throw new RuntimeException("invalid range " + range);
+            }
+            responseHeaders.put("Content-Range",
+                    "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            responseHeaders.put("Content-Length", String.valueOf(length));
+            return new WebResourceResponse(mimeType, Content.UTF8, 206,
+                    "Partial Content", responseHeaders,
+                    new BufferedInputStream(ByteStreams.limit(in, length)));
         } catch (Throwable throwable) {
             if (closeable.isClosed()) {
                 throw new ClosedException();
@@ -674,6 +731,49 @@ public class DOCS {
 
     }
 
+    // first and last byte of the first range of a "bytes=" header, null when the range
+    // can not be satisfied
+    @Nullable
+    private long[] parseRange(@NonNull String range, long size) {
+        String value = range.trim();
+        if (!value.startsWith("bytes=")) {
+            return null;
+        }
+        value = value.substring("bytes=".length());
+        int comma = value.indexOf(',');
+        if (comma >= 0) {
+            value = value.substring(0, comma);
+        }
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = value.substring(0, dash).trim();
+            String last = value.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range, the last bytes of the content
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(size - suffix, 0);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start < 0 || start >= size || end < start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
 
     @NonNull
     public String getFileName(@NonNull Uri uri) {
@@ -918,6 +1018,7 @@ public class DOCS {
 
     @NonNull
     public WebResourceResponse getResponse(@NonNull Context context, @NonNull Uri uri,
+                                           @Nullable String range,
                                            @NonNull Closeable closeable) throws Exception {
 
         List<String> paths = uri.getPathSegments();
@@ -926,7 +1027,7 @@ public class DOCS {
         Objects.requireNonNull(root);
 
 
-        return getResponse(context, uri, root, paths, closeable);
+        return getResponse(context, uri, root, paths, range, closeable);
 
     }
 
@@ -44,6 +44,7 @@ import androidx.webkit.WebSettingsCompat;
 import androidx.webkit.WebViewFeature;
 
 import java.io.ByteArrayInputStream;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -488,6 +489,19 @@ public class BrowserFragment extends Fragment {
             }
 
 
+            @Nullable
+            private String getRange(@NonNull WebResourceRequest request) {
+                Map<String, String> headers = request.getRequestHeaders();
+                if (headers != null) {
+                    for (Map.Entry<String, String> entry : headers.entrySet()) {
+                        if ("Range".equalsIgnoreCase(entry.getKey())) {
+                            return entry.getValue();
+                        }
+                    }
+                }
+                return null;
+            }
+
             @Override
             public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
 
@@ -516,7 +530,8 @@ public class BrowserFragment extends Fragment {
                             return createRedirectMessage(redirectUri);
                         }
 
-                        return docs.getResponse(mContext, redirectUri, closeable);
+                        return docs.getResponse(mContext, redirectUri,
+                                getRange(request), closeable);
                     } catch (Throwable throwable) {
                         if (closeable.isClosed()) {
                             return createEmptyResource();
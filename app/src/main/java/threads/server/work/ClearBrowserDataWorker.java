@@ -21,6 +21,7 @@ import androidx.work.WorkerParameters;
 import java.io.File;
 import java.util.concurrent.TimeUnit;
 
+import threads.lite.IPFS;
 import threads.lite.LogUtils;
 import threads.server.MainActivity;
 import threads.server.R;
@@ -184,7 +185,7 @@ public class ClearBrowserDataWorker extends Worker {
             fileProvider.cleanDataDir();
 
             // Clear browser data
-            threads.lite.data.BLOCKS.getInstance(getApplicationContext()).clear();
+            IPFS.getInstance(getApplicationContext()).clearDatabase();
             PAGES.getInstance(getApplicationContext()).clear();
             THREADS.getInstance(getApplicationContext()).clear();
 
@@ -142,6 +142,7 @@ public class DeleteThreadsWorker extends Worker {
             for (long idx : threads.getDeletedThreads()) {
                 docs.deleteContent(idx);
             }
+            docs.collectGarbage();
 
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
@@ -51,6 +51,7 @@ public class InitApplicationWorker extends Worker {
             for (long idx : threads.getDeletedThreads()) {
                 docs.deleteContent(idx);
             }
+            docs.collectGarbage();
 
         } catch (Throwable e) {
             LogUtils.error(TAG, e);
@@ -20,6 +20,8 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -28,7 +30,9 @@ import java.util.concurrent.atomic.AtomicReference;
 import threads.lite.IPFS;
 import threads.lite.LogUtils;
 import threads.lite.cid.Cid;
+import threads.lite.core.ClosedException;
 import threads.lite.core.Progress;
+import threads.lite.dag.MutableDirectory;
 import threads.server.MainActivity;
 import threads.server.R;
 import threads.server.Settings;
@@ -181,12 +185,27 @@ public class UploadFolderWorker extends Worker {
 
             try {
                 long parent = createDir(root, name, false);
+                docs.finishDocument(parent);
 
                 threads.setThreadWork(parent, getId());
                 threads.setThreadUri(parent, uri);
                 threads.setThreadLeaching(parent);
 
-                copyDir(parent, rootDocFile);
+                // the whole folder is collected in memory and committed once, instead of
+                // updating all parent directories for each single file
+                MutableDirectory dir = ipfs.openDirectory(Cid.decode(
+                        Objects.requireNonNull(threads.getThreadContent(parent))), () -> false);
+                LinkedHashMap<Long, MutableDirectory> dirs = new LinkedHashMap<>();
+                try {
+                    copyDir(parent, rootDocFile, dir, dirs);
+                } finally {
+                    dir.commit(() -> false);
+                    for (Map.Entry<Long, MutableDirectory> entry : dirs.entrySet()) {
+                        docs.finishDirectory(entry.getKey(), entry.getValue().getCid());
+                    }
+                    docs.finishDirectory(parent, dir.getCid());
+                    docs.finishDocument(parent);
+                }
 
                 threads.setThreadDone(parent);
 
@@ -216,14 +235,15 @@ public class UploadFolderWorker extends Worker {
     }
 
     private long createDir(long parent, @NonNull String name, boolean init) {
-        long idx = docs.createDocument(parent, MimeTypeService.DIR_MIME_TYPE,
+        return docs.createDocument(parent, MimeTypeService.DIR_MIME_TYPE,
                 Objects.requireNonNull(ipfs.createEmptyDir()).String(),
                 null, name, 0L, false, init);
-        docs.finishDocument(idx);
-        return idx;
     }
 
-    private void copyDir(long parent, @NonNull DocumentFile file) {
+    // the directories are added to dirs after their children, so they are finished bottom up
+    private void copyDir(long parent, @NonNull DocumentFile file, @NonNull MutableDirectory dir,
+                         @NonNull LinkedHashMap<Long, MutableDirectory> dirs)
+            throws ClosedException {
 
         DocumentFile[] filesInDir = file.listFiles();
         int maxIndex = filesInDir.length;
@@ -237,12 +257,17 @@ public class UploadFolderWorker extends Worker {
                     Objects.requireNonNull(name);
                     long child = createDir(parent, name, true);
                     threads.setThreadLeaching(child);
-                    copyDir(child, docFile);
+                    MutableDirectory childDir = dir.getDirectory(() -> false,
+                            threads.getThreadName(child));
+                    copyDir(child, docFile, childDir, dirs);
                     threads.setThreadDone(child);
-                    docs.finishDocument(child);
+                    dirs.put(child, childDir);
                 } else {
                     long child = copyFile(parent, docFile, index, maxIndex);
-                    docs.finishDocument(child);
+                    if (child > 0) {
+                        dir.addLink(() -> false, threads.getThreadName(child), Cid.decode(
+                                Objects.requireNonNull(threads.getThreadContent(child))));
+                    }
                 }
             }
         }
@@ -2,7 +2,9 @@ package threads.lite;
 
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertNotEquals;
 
@@ -22,12 +24,18 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
 import threads.lite.cid.Cid;
 import threads.lite.core.ClosedException;
 import threads.lite.core.TimeoutCloseable;
+import threads.lite.dag.MutableDirectory;
+import threads.lite.format.Block;
+import threads.lite.format.BlockCache;
 import threads.lite.utils.Link;
 
 @SuppressWarnings("SpellCheckingInspection")
@@ -67,6 +75,30 @@ public class IpfsAddTest {
 
     }
 
+    @Test
+    public void cache_internal_blocks() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+        Cid file = ipfs.storeData(getRandomBytes(400000));
+        assertNotNull(file);
+        Cid dir = ipfs.addLinkToDir(ipfs.createEmptyDir(), "file", file);
+        assertNotNull(dir);
+
+        // the blocks are loaded into the cache of the instance
+        assertNotNull(ipfs.getData(file, () -> false));
+        assertNotNull(ipfs.getLinks(dir, true, () -> false));
+
+        for (Cid cid : Arrays.asList(file, dir)) {
+            Block block = ipfs.getBlockCache().peek(cid);
+            assertNotNull(block);
+
+            BlockCache cache = new BlockCache(1000000, 1000000);
+            cache.put(block);
+            assertEquals(block.getRawData().length, cache.getInternalSize());
+            assertEquals(0, cache.getLeafSize());
+        }
+    }
+
     @Test
     public void add_dir() throws Exception {
 
@@ -97,6 +129,128 @@ public class IpfsAddTest {
 
     }
 
+    @Test
+    public void add_sharded_dir() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+        Cid dir = ipfs.createEmptyDir();
+        assertNotNull(dir);
+
+        Cid text = ipfs.storeText("Hallo");
+        assertNotNull(text);
+
+        // the names and cids exceed the sharding size of a directory
+        int entries = 5000;
+        for (int i = 0; i < entries; i++) {
+            dir = ipfs.addLinkToDir(dir, "text-" + i + "-" + UUID.randomUUID() + ".txt", text);
+            assertNotNull(dir);
+        }
+        dir = ipfs.addLinkToDir(dir, "text.txt", text);
+        assertNotNull(dir);
+
+        List<Link> links = ipfs.getLinks(dir, false, new TimeoutCloseable(10));
+        assertNotNull(links);
+        assertEquals(links.size(), entries + 1);
+
+        assertTrue(ipfs.resolve(dir, "text.txt", new TimeoutCloseable(1)));
+        assertEquals(ipfs.resolve(dir, Collections.singletonList("text.txt"), new TimeoutCloseable(1)), text);
+
+        dir = ipfs.rmLinkFromDir(dir, "text.txt");
+        assertNotNull(dir);
+        assertFalse(ipfs.resolve(dir, "text.txt", new TimeoutCloseable(1)));
+
+        links = ipfs.getLinks(dir, false, new TimeoutCloseable(10));
+        assertNotNull(links);
+        assertEquals(links.size(), entries);
+    }
+
+    @Test
+    public void add_sharded_mutable_dir() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+        Cid empty = ipfs.createEmptyDir();
+        assertNotNull(empty);
+
+        Cid text = ipfs.storeText("Hallo");
+        assertNotNull(text);
+
+        // the names and cids exceed the sharding size of a directory
+        int entries = 5000;
+        int kept = 10;
+        List<String> names = new ArrayList<>();
+        MutableDirectory dir = ipfs.openDirectory(empty, () -> false);
+        for (int i = 0; i < entries; i++) {
+            String name = "text-" + i + "-" + UUID.randomUUID() + ".txt";
+            names.add(name);
+            dir.addLink(() -> false, name, text);
+        }
+        Cid sharded = dir.commit(() -> false);
+        List<Link> links = ipfs.getLinks(sharded, false, new TimeoutCloseable(10));
+        assertNotNull(links);
+        assertEquals(links.size(), entries);
+
+        // below the sharding size the directory is a basic directory again
+        for (int i = kept; i < entries; i++) {
+            dir.removeLink(() -> false, names.get(i));
+        }
+        Cid basic = dir.commit(() -> false);
+
+        Cid expected = empty;
+        for (int i = 0; i < kept; i++) {
+            expected = ipfs.addLinkToDir(expected, names.get(i), text);
+            assertNotNull(expected);
+        }
+        assertEquals(expected, basic);
+    }
+
+    @Test
+    public void add_mutable_dir() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+        Cid empty = ipfs.createEmptyDir();
+        assertNotNull(empty);
+
+        Cid text = ipfs.storeText("Hallo");
+        assertNotNull(text);
+
+        // the same tree, once with a single commit and once link by link
+        MutableDirectory dir = ipfs.openDirectory(empty, () -> false);
+        MutableDirectory sub = dir.getDirectory(() -> false, "sub");
+        for (int i = 0; i < 10; i++) {
+            sub.addLink(() -> false, "text-" + i + ".txt", text);
+        }
+        dir.addLink(() -> false, "text.txt", text);
+        dir.getDirectory(() -> false, "empty");
+        Cid committed = dir.commit(() -> false);
+
+        Cid subDir = empty;
+        for (int i = 0; i < 10; i++) {
+            subDir = ipfs.addLinkToDir(subDir, "text-" + i + ".txt", text);
+            assertNotNull(subDir);
+        }
+        Cid expected = ipfs.addLinkToDir(empty, "sub", subDir);
+        assertNotNull(expected);
+        expected = ipfs.addLinkToDir(expected, "text.txt", text);
+        assertNotNull(expected);
+        expected = ipfs.addLinkToDir(expected, "empty", empty);
+        assertNotNull(expected);
+        assertEquals(expected, committed);
+        assertEquals(subDir, sub.getCid());
+
+        // a directory which is opened again is only encoded when it was modified
+        dir = ipfs.openDirectory(committed, () -> false);
+        dir.getDirectory(() -> false, "sub");
+        assertEquals(committed, dir.commit(() -> false));
+
+        dir.getDirectory(() -> false, "sub").removeLink(() -> false, "text-0.txt");
+        Cid removed = dir.commit(() -> false);
+        assertNotEquals(committed, removed);
+        assertEquals(ipfs.resolve(removed, Arrays.asList("sub", "text-1.txt"),
+                new TimeoutCloseable(1)), text);
+        assertNull(ipfs.resolve(removed, Arrays.asList("sub", "text-0.txt"),
+                new TimeoutCloseable(1)));
+    }
+
     @Test
     public void add_wrap_test() throws Exception {
 
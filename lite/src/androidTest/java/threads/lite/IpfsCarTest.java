@@ -0,0 +1,102 @@
+package threads.lite;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import threads.lite.cid.Cid;
+import threads.lite.core.TimeoutCloseable;
+
+@RunWith(AndroidJUnit4.class)
+public class IpfsCarTest {
+
+    private static Context context;
+
+    @BeforeClass
+    public static void setup() {
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    private byte[] getRandomBytes(int number) {
+        byte[] bytes = new byte[number];
+        new Random(number).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void test_car_export_import() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+
+        byte[] data = getRandomBytes(IPFS.CHUNK_SIZE * 10 + 100);
+        Cid file = ipfs.storeData(data);
+        assertNotNull(file);
+        Cid dir = ipfs.createEmptyDir();
+        assertNotNull(dir);
+        dir = ipfs.addLinkToDir(dir, "data.bin", file);
+        assertNotNull(dir);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ipfs.storeToCar(outputStream, dir, () -> false);
+        byte[] car = outputStream.toByteArray();
+        assertTrue(car.length > data.length);
+
+        // the blocks of the file are restored from the archive
+        ipfs.rm(file);
+
+        List<Cid> roots = ipfs.storeCar(new ByteArrayInputStream(car), () -> false, false);
+        assertEquals(roots.size(), 1);
+        assertEquals(roots.get(0), dir);
+
+        Cid resolved = ipfs.resolve(dir, Collections.singletonList("data.bin"), () -> false);
+        assertEquals(resolved, file);
+        assertTrue(Arrays.equals(ipfs.getData(file, () -> false), data));
+
+        // the export of the imported dag is identical
+        outputStream = new ByteArrayOutputStream();
+        ipfs.storeToCar(outputStream, dir, () -> false);
+        assertTrue(Arrays.equals(outputStream.toByteArray(), car));
+    }
+
+    @Test
+    public void test_car_import_gc() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+
+        byte[] data = getRandomBytes(IPFS.CHUNK_SIZE * 3 + 10);
+        Cid file = ipfs.storeData(data);
+        assertNotNull(file);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ipfs.storeToCar(outputStream, file, () -> false);
+        byte[] car = outputStream.toByteArray();
+        ipfs.rm(file);
+
+        List<Cid> roots = ipfs.storeCar(new ByteArrayInputStream(car), () -> false, true);
+        assertEquals(roots.size(), 1);
+        assertTrue(ipfs.isPinned(file));
+
+        // the second collection does not protect the recently stored blocks anymore
+        ipfs.gc(() -> false);
+        ipfs.gc(() -> false);
+        assertTrue(Arrays.equals(ipfs.getData(file, new TimeoutCloseable(10)), data));
+
+        ipfs.unpin(file);
+    }
+}
@@ -0,0 +1,268 @@
+package threads.lite;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import threads.lite.cid.Cid;
+import threads.lite.cid.Multihash;
+import threads.lite.cid.Prefix;
+import threads.lite.core.Progress;
+import threads.lite.dag.Balanced;
+import threads.lite.dag.BlockService;
+import threads.lite.dag.DagBuilderHelper;
+import threads.lite.dag.DagService;
+import threads.lite.dag.Trickle;
+import threads.lite.data.BLOCKS;
+import threads.lite.format.BlockStore;
+import threads.lite.format.Node;
+import threads.lite.utils.OfflineExchange;
+import threads.lite.utils.Reader;
+import threads.lite.utils.ReaderStream;
+import threads.lite.utils.SizeSplitter;
+import threads.lite.utils.Splitter;
+import threads.lite.utils.WriterStream;
+
+@RunWith(AndroidJUnit4.class)
+public class IpfsImportTest {
+
+    private static Context context;
+
+    @BeforeClass
+    public static void setup() {
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    private byte[] getRandomBytes(int number) {
+        byte[] bytes = new byte[number];
+        new Random(number).nextBytes(bytes);
+        return bytes;
+    }
+
+    @NonNull
+    private BlockStore getBlockStore() {
+        return BlockStore.createBlockStore(BLOCKS.getInstance(context));
+    }
+
+    @NonNull
+    private Cid layout(@NonNull byte[] data, long budget) {
+        return layout(data, budget, false);
+    }
+
+    @NonNull
+    private Cid layout(@NonNull byte[] data, long budget, boolean balanced) {
+        BlockStore blockStore = getBlockStore();
+        DagService dagService = DagService.createDagService(
+                BlockService.createBlockService(blockStore, new OfflineExchange(blockStore)));
+
+        Prefix prefix = Node.PrefixForCidVersion(0);
+        prefix.MhType = Multihash.Type.sha2_256.index;
+        prefix.MhLength = -1;
+
+        DagBuilderHelper db = new DagBuilderHelper(dagService, prefix,
+                new SizeSplitter(getWriterStream(data), IPFS.CHUNK_SIZE), false, budget);
+        try {
+            if (balanced) {
+                return Balanced.Layout(db).getCid();
+            }
+            return Trickle.Layout(db).getCid();
+        } finally {
+            db.close();
+        }
+    }
+
+    @NonNull
+    private WriterStream getWriterStream(@NonNull byte[] data) {
+        return new WriterStream(new ByteArrayInputStream(data),
+                new Progress() {
+                    @Override
+                    public void setProgress(int progress) {
+                    }
+
+                    @Override
+                    public boolean doProgress() {
+                        return false;
+                    }
+
+                    @Override
+                    public boolean isClosed() {
+                        return false;
+                    }
+                }, data.length);
+    }
+
+    @NonNull
+    private List<byte[]> split(@NonNull byte[] data, @NonNull String chunker) {
+        Splitter splitter = Splitter.createSplitter(getWriterStream(data), chunker);
+        List<byte[]> chunks = new ArrayList<>();
+        while (!splitter.done()) {
+            byte[] chunk = splitter.nextBytes();
+            if (chunk != null) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    private int shared(@NonNull List<byte[]> first, @NonNull List<byte[]> second) {
+        Set<ByteBuffer> chunks = new HashSet<>();
+        for (byte[] chunk : first) {
+            chunks.add(ByteBuffer.wrap(chunk));
+        }
+        int shared = 0;
+        for (byte[] chunk : second) {
+            if (chunks.contains(ByteBuffer.wrap(chunk))) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    @Test
+    public void test_pipeline_identical_cids() {
+
+        int[] sizes = {0, 1, IPFS.CHUNK_SIZE, IPFS.CHUNK_SIZE + 1,
+                IPFS.CHUNK_SIZE * IPFS.LINKS_PER_BLOCK,
+                IPFS.CHUNK_SIZE * (IPFS.LINKS_PER_BLOCK + 5) + 17};
+
+        for (int size : sizes) {
+            byte[] data = getRandomBytes(size);
+            Cid sequential = layout(data, 0);
+            // small budget, so that the reader stage is blocked by the budget
+            Cid pipeline = layout(data, IPFS.CHUNK_SIZE * 4);
+            assertEquals(sequential, pipeline);
+        }
+    }
+
+    @Test
+    public void test_balanced_layout() throws Exception {
+
+        int[] sizes = {0, 1, IPFS.CHUNK_SIZE, IPFS.CHUNK_SIZE + 1,
+                IPFS.CHUNK_SIZE * IPFS.LINKS_PER_BLOCK,
+                IPFS.CHUNK_SIZE * (IPFS.LINKS_PER_BLOCK + 5) + 17};
+
+        BlockStore blockStore = getBlockStore();
+        for (int size : sizes) {
+            byte[] data = getRandomBytes(size);
+            Cid cid = layout(data, IPFS.IMPORT_BUDGET, true);
+            assertEquals(cid, layout(data, 0, true));
+
+            Reader reader = Reader.getReader(() -> false, blockStore,
+                    new OfflineExchange(blockStore), cid);
+            assertEquals(size, reader.getSize());
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ByteString bytes = reader.loadNextData();
+            while (bytes != null && !bytes.isEmpty()) {
+                bytes.writeTo(outputStream);
+                bytes = reader.loadNextData();
+            }
+            assertTrue(Arrays.equals(data, outputStream.toByteArray()));
+
+            // random access into the last leaf
+            if (size > IPFS.CHUNK_SIZE) {
+                int offset = size - 1;
+                reader.seek(offset);
+                bytes = reader.loadNextData();
+                assertNotNull(bytes);
+                assertEquals(data[offset], bytes.byteAt(0));
+            }
+        }
+    }
+
+    @Test
+    public void test_random_access() throws Exception {
+
+        int size = IPFS.CHUNK_SIZE * (IPFS.LINKS_PER_BLOCK + 5) + 17;
+        byte[] data = getRandomBytes(size);
+        BlockStore blockStore = getBlockStore();
+        for (boolean balanced : new boolean[]{false, true}) {
+            Cid cid = layout(data, IPFS.IMPORT_BUDGET, balanced);
+
+            Reader reader = Reader.getReader(() -> false, blockStore,
+                    new OfflineExchange(blockStore), cid);
+            Random random = new Random(size);
+            for (int i = 0; i < 200; i++) {
+                long offset = random.nextInt(size);
+                int length = random.nextInt(IPFS.CHUNK_SIZE * 3);
+                byte[] buffer = new byte[length];
+                int read = reader.read(offset, buffer, 0, length);
+                assertEquals(Math.min(length, size - offset), read);
+                assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int) offset,
+                        (int) offset + read), Arrays.copyOf(buffer, read)));
+            }
+
+            // bulk reads and skips of the stream
+            reader = Reader.getReader(() -> false, blockStore,
+                    new OfflineExchange(blockStore), cid);
+            try (ReaderStream stream = new ReaderStream(reader)) {
+                byte[] buffer = new byte[10000];
+                long position = 0;
+                int read;
+                while ((read = stream.read(buffer, 0, buffer.length)) > 0) {
+                    assertTrue(Arrays.equals(Arrays.copyOfRange(data, (int) position,
+                            (int) position + read), Arrays.copyOf(buffer, read)));
+                    position += read;
+                    long skip = random.nextInt(IPFS.CHUNK_SIZE * 2);
+                    position += stream.skip(skip);
+                }
+                assertEquals(size, position);
+                assertEquals(-1, stream.read());
+            }
+        }
+    }
+
+    @Test
+    public void test_content_defined_chunking() {
+
+        byte[] data = getRandomBytes(IPFS.CHUNK_SIZE * 40);
+        // the second version has a few bytes inserted in the middle
+        byte[] insert = getRandomBytes(100);
+        byte[] modified = new byte[data.length + insert.length];
+        int middle = data.length / 2;
+        System.arraycopy(data, 0, modified, 0, middle);
+        System.arraycopy(insert, 0, modified, middle, insert.length);
+        System.arraycopy(data, middle, modified, middle + insert.length, data.length - middle);
+
+        for (String chunker : new String[]{"rabin"}) {
+            List<byte[]> chunks = split(data, chunker);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            for (byte[] chunk : chunks) {
+                assertTrue(chunk.length <= IPFS.BLOCK_SIZE_LIMIT);
+                outputStream.write(chunk, 0, chunk.length);
+            }
+            assertTrue(Arrays.equals(data, outputStream.toByteArray()));
+
+            // only the chunks around the insert differ
+            List<byte[]> modifiedChunks = split(modified, chunker);
+            assertTrue(shared(chunks, modifiedChunks) >= chunks.size() - 4);
+        }
+
+        // fixed size chunks are all shifted after the insert
+        List<byte[]> chunks = split(data, IPFS.CHUNKER);
+        assertTrue(shared(chunks, split(modified, IPFS.CHUNKER)) <= chunks.size() / 2 + 1);
+    }
+}
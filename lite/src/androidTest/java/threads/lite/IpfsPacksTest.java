@@ -0,0 +1,80 @@
+package threads.lite;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import threads.lite.cid.Cid;
+import threads.lite.data.PACKS;
+import threads.lite.format.BasicBlock;
+import threads.lite.format.Block;
+import threads.lite.format.BlockStore;
+
+@RunWith(AndroidJUnit4.class)
+public class IpfsPacksTest {
+
+    private static Context context;
+
+    @BeforeClass
+    public static void setup() {
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    private byte[] getRandomBytes(int number) {
+        return RandomStringUtils.randomAlphabetic(number).getBytes();
+    }
+
+    @Test
+    public void test_packs() {
+
+        PACKS packs = PACKS.getInstance(context);
+        packs.clear();
+
+        BlockStore blockStore = BlockStore.createBlockStore(packs);
+
+        Block first = BasicBlock.createBlock(getRandomBytes(IPFS.CHUNK_SIZE));
+        Block second = BasicBlock.createBlock(getRandomBytes(1000));
+
+        blockStore.putBlock(first);
+        blockStore.putBlock(second);
+
+        assertTrue(blockStore.hasBlock(first.getCid()));
+        assertTrue(blockStore.hasBlock(second.getCid()));
+        assertEquals(blockStore.getSize(first.getCid()), IPFS.CHUNK_SIZE);
+        assertEquals(blockStore.getSize(second.getCid()), 1000);
+
+        Block block = blockStore.getBlock(second.getCid());
+        assertNotNull(block);
+        assertTrue(Arrays.equals(block.getRawData(), second.getRawData()));
+
+        blockStore.deleteBlock(first.getCid());
+        assertFalse(blockStore.hasBlock(first.getCid()));
+        assertNull(blockStore.getBlock(first.getCid()));
+        assertTrue(packs.getGarbage() > 0);
+
+        packs.compact();
+        assertEquals(packs.getGarbage(), 0);
+
+        Cid cid = second.getCid();
+        block = blockStore.getBlock(cid);
+        assertNotNull(block);
+        assertTrue(Arrays.equals(block.getRawData(), second.getRawData()));
+
+        packs.clear();
+        assertFalse(blockStore.hasBlock(cid));
+    }
+}
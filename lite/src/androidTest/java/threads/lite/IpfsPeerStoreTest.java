@@ -0,0 +1,142 @@
+package threads.lite;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import threads.lite.cid.Multiaddr;
+import threads.lite.cid.PeerId;
+import threads.lite.host.PeerStore;
+
+
+@SuppressWarnings("SpellCheckingInspection")
+@RunWith(AndroidJUnit4.class)
+public class IpfsPeerStoreTest {
+
+    private static final String DUMMY_PID = "QmVLnkyetpt7JNpjLmZX21q9F8ZMnhBts3Q53RcAGxWH6V";
+
+    private static Context context;
+
+    @BeforeClass
+    public static void setup() {
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    @Test
+    public void test_dial_order() {
+        File file = new File(context.getCacheDir(), "test.peers.store");
+        file.delete();
+        PeerStore peerStore = PeerStore.createPeerStore(file);
+
+        PeerId peerId = PeerId.fromBase58(DUMMY_PID);
+        Multiaddr failed = new Multiaddr("/ip4/139.178.68.145/udp/4001/quic");
+        Multiaddr unknown = new Multiaddr("/ip4/139.178.68.146/udp/4001/quic");
+        Multiaddr slow = new Multiaddr("/ip4/139.178.68.147/udp/4001/quic");
+        Multiaddr fast = new Multiaddr("/ip6/2604:1380:45e3:6e00::1/udp/4001/quic");
+
+        peerStore.addAddresses(peerId, Arrays.asList(failed, unknown, slow, fast),
+                IPFS.PEER_STORE_ADDRESS_TTL);
+        peerStore.failure(peerId, failed);
+        peerStore.success(peerId, slow, 500);
+        peerStore.success(peerId, fast, 50);
+
+        List<Multiaddr> addresses = peerStore.getAddresses(peerId);
+        assertEquals(Arrays.asList(fast, slow, unknown, failed), addresses);
+    }
+
+    @Test
+    public void test_expired() throws InterruptedException {
+        File file = new File(context.getCacheDir(), "test.peers.store");
+        file.delete();
+        PeerStore peerStore = PeerStore.createPeerStore(file);
+
+        PeerId peerId = PeerId.fromBase58(DUMMY_PID);
+        Multiaddr address = new Multiaddr("/ip4/139.178.68.145/udp/4001/quic");
+        peerStore.addAddresses(peerId, Collections.singletonList(address), 100);
+        assertTrue(peerStore.hasAddresses(peerId));
+
+        Thread.sleep(200);
+        assertFalse(peerStore.hasAddresses(peerId));
+    }
+
+    @Test
+    public void test_save_and_load() {
+        File file = new File(context.getCacheDir(), "test.peers.store");
+        file.delete();
+        PeerStore peerStore = PeerStore.createPeerStore(file);
+
+        PeerId peerId = PeerId.fromBase58(DUMMY_PID);
+        Multiaddr failed = new Multiaddr("/ip4/139.178.68.145/udp/4001/quic");
+        Multiaddr unknown = new Multiaddr("/ip4/139.178.68.146/udp/4001/quic");
+        Multiaddr fast = new Multiaddr("/ip6/2604:1380:45e3:6e00::1/udp/4001/quic");
+
+        peerStore.addAddresses(peerId, Arrays.asList(failed, unknown, fast),
+                IPFS.PEER_STORE_ADDRESS_TTL);
+        peerStore.failure(peerId, failed);
+        peerStore.success(peerId, fast, 50);
+        peerStore.flush();
+        assertTrue(file.exists());
+
+        PeerStore loaded = PeerStore.createPeerStore(file);
+        assertEquals(Arrays.asList(fast, unknown, failed), loaded.getAddresses(peerId));
+    }
+
+    @Test
+    public void test_load_expired() throws InterruptedException {
+        File file = new File(context.getCacheDir(), "test.peers.store");
+        file.delete();
+        PeerStore peerStore = PeerStore.createPeerStore(file);
+
+        PeerId peerId = PeerId.fromBase58(DUMMY_PID);
+        Multiaddr kept = new Multiaddr("/ip4/139.178.68.145/udp/4001/quic");
+        Multiaddr expired = new Multiaddr("/ip4/139.178.68.146/udp/4001/quic");
+        peerStore.addAddresses(peerId, Collections.singletonList(kept),
+                IPFS.PEER_STORE_ADDRESS_TTL);
+        peerStore.addAddresses(peerId, Collections.singletonList(expired), 100);
+        peerStore.flush();
+
+        Thread.sleep(200);
+        PeerStore loaded = PeerStore.createPeerStore(file);
+        assertEquals(Collections.singletonList(kept), loaded.getAddresses(peerId));
+    }
+
+    @Test
+    public void test_save_expired() throws InterruptedException {
+        File file = new File(context.getCacheDir(), "test.peers.store");
+        file.delete();
+        PeerId peerId = PeerId.fromBase58(DUMMY_PID);
+        Multiaddr kept = new Multiaddr("/ip4/139.178.68.145/udp/4001/quic");
+        Multiaddr expired = new Multiaddr("/ip4/139.178.68.146/udp/4001/quic");
+
+        PeerStore peerStore = PeerStore.createPeerStore(file);
+        peerStore.addAddresses(peerId, Collections.singletonList(kept),
+                IPFS.PEER_STORE_ADDRESS_TTL);
+        peerStore.flush();
+        long length = file.length();
+
+        file.delete();
+        peerStore = PeerStore.createPeerStore(file);
+        peerStore.addAddresses(peerId, Collections.singletonList(expired), 100);
+        Thread.sleep(200);
+        peerStore.addAddresses(peerId, Collections.singletonList(kept),
+                IPFS.PEER_STORE_ADDRESS_TTL);
+        peerStore.flush();
+
+        // the expired address is not written
+        assertEquals(length, file.length());
+    }
+}
@@ -6,6 +6,7 @@ import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.content.Context;
+import android.os.Debug;
 
 import androidx.annotation.NonNull;
 import androidx.test.core.app.ApplicationProvider;
@@ -17,8 +18,10 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -45,6 +48,60 @@ public class IpfsPerformance {
         return File.createTempFile("temp", ".io.ipfs.cid", context.getCacheDir());
     }
 
+    // bytes allocated by the runtime since start
+    private long getAllocated() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    @Test
+    public void test_allocation() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+
+        int megabytes = 64;
+        byte[] data = getRandomBytes(megabytes * 1024 * 1024);
+
+        long allocated = getAllocated();
+        Cid cid = ipfs.storeInputStream(new ByteArrayInputStream(data), new Progress() {
+            @Override
+            public void setProgress(int progress) {
+            }
+
+            @Override
+            public boolean doProgress() {
+                return false;
+            }
+
+            @Override
+            public boolean isClosed() {
+                return false;
+            }
+        }, data.length);
+        assertNotNull(cid);
+        LogUtils.debug(TAG, "Import allocated : " +
+                ((getAllocated() - allocated) / megabytes) + "[bytes per MB]");
+
+        long[] read = new long[1];
+        allocated = getAllocated();
+        ipfs.storeToOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                read[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                read[0] += len;
+            }
+        }, cid, () -> false);
+        LogUtils.debug(TAG, "Read allocated : " +
+                ((getAllocated() - allocated) / megabytes) + "[bytes per MB]");
+
+        assertEquals(data.length, read[0]);
+
+        ipfs.rm(cid);
+    }
+
     @Test
     public void test_add_cat_small() throws Exception {
 
@@ -0,0 +1,96 @@
+package threads.lite;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import threads.lite.cid.Cid;
+import threads.lite.core.TimeoutCloseable;
+
+@RunWith(AndroidJUnit4.class)
+public class IpfsPinsTest {
+
+    private static Context context;
+
+    @BeforeClass
+    public static void setup() {
+        context = ApplicationProvider.getApplicationContext();
+    }
+
+    private byte[] getRandomBytes(int number) {
+        byte[] bytes = new byte[number];
+        new Random(System.nanoTime()).nextBytes(bytes);
+        return bytes;
+    }
+
+    private boolean isAvailable(@NonNull IPFS ipfs, @NonNull Cid cid, @NonNull byte[] data) {
+        try {
+            return Arrays.equals(ipfs.getData(cid, new TimeoutCloseable(1)), data);
+        } catch (Throwable throwable) {
+            return false;
+        }
+    }
+
+    @Test
+    public void test_rm_keeps_pinned() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+
+        byte[] data = getRandomBytes(IPFS.CHUNK_SIZE * 3);
+        Cid file = ipfs.storeData(data);
+        assertNotNull(file);
+        Cid dir = ipfs.createEmptyDir();
+        assertNotNull(dir);
+        dir = ipfs.addLinkToDir(dir, "data.bin", file);
+        assertNotNull(dir);
+
+        // the file is shared with the pinned directory
+        ipfs.pin(dir);
+        assertTrue(ipfs.isPinned(dir));
+        ipfs.rm(file);
+        assertTrue(isAvailable(ipfs, file, data));
+
+        ipfs.unpin(dir);
+        assertFalse(ipfs.isPinned(dir));
+        ipfs.rm(dir);
+        assertFalse(isAvailable(ipfs, file, data));
+    }
+
+    @Test
+    public void test_gc() throws Exception {
+
+        IPFS ipfs = TestEnv.getTestInstance(context);
+
+        byte[] pinnedData = getRandomBytes(IPFS.CHUNK_SIZE * 3);
+        Cid pinned = ipfs.storeData(pinnedData);
+        assertNotNull(pinned);
+        ipfs.pin(pinned);
+
+        byte[] data = getRandomBytes(IPFS.CHUNK_SIZE * 3);
+        Cid cid = ipfs.storeData(data);
+        assertNotNull(cid);
+
+        // blocks stored since the previous collection started are kept
+        ipfs.gc(() -> false);
+        assertTrue(isAvailable(ipfs, cid, data));
+
+        ipfs.gc(() -> false);
+        assertFalse(isAvailable(ipfs, cid, data));
+        assertTrue(isAvailable(ipfs, pinned, pinnedData));
+
+        ipfs.unpin(pinned);
+    }
+}
@@ -1,6 +1,7 @@
 package threads.lite;
 
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -77,6 +78,24 @@ public class IpfsTest {
         }
     }
 
+    @Test
+    public void test_dns_addr_cache() {
+
+        if (TestEnv.isConnected(context)) {
+            DnsResolver.clearCache();
+
+            Set<String> result = DnsResolver.resolveDnsAddress(IPFS.LIB2P_DNS);
+            assertNotNull(result);
+
+            // the second resolution is answered from the cache
+            long start = System.currentTimeMillis();
+            Set<String> cached = DnsResolver.resolveDnsAddress(IPFS.LIB2P_DNS);
+            long time = System.currentTimeMillis() - start;
+            assertEquals(result, cached);
+            assertTrue(time < 100);
+        }
+    }
+
     @Test
     public void streamTest() throws IOException, ClosedException {
         IPFS ipfs = TestEnv.getTestInstance(context);
@@ -28,12 +28,17 @@ public class Statistics {
         senderStatistics = statistics;
     }
 
+    public int smoothedRtt() {
+        return senderStatistics.smoothedRtt();
+    }
+
     @Override
     public String toString() {
         return "datagrams sent: " + senderStatistics.datagramsSent() +
                 "\npackets send: " + senderStatistics.packetsSent() +
                 "\nbytes sent: " + senderStatistics.bytesSent() +
-                "\npackets lost: " + senderStatistics.lostPackets();
+                "\npackets lost: " + senderStatistics.lostPackets() +
+                "\nsmoothed rtt: " + senderStatistics.smoothedRtt();
 
     }
 }
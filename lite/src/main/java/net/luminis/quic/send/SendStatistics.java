@@ -24,12 +24,14 @@ public class SendStatistics {
     private final long packetsSent;
     private final long bytesSent;
     private final long lostPackets;
+    private final int smoothedRtt;
 
-    public SendStatistics(int datagramsSent, long packetsSent, long bytesSent, long lostPackets) {
+    public SendStatistics(int datagramsSent, long packetsSent, long bytesSent, long lostPackets, int smoothedRtt) {
         this.datagramsSent = datagramsSent;
         this.packetsSent = packetsSent;
         this.bytesSent = bytesSent;
         this.lostPackets = lostPackets;
+        this.smoothedRtt = smoothedRtt;
     }
 
     public int datagramsSent() {
@@ -47,4 +49,8 @@ public class SendStatistics {
     public long packetsSent() {
         return packetsSent;
     }
+
+    public int smoothedRtt() {
+        return smoothedRtt;
+    }
 }
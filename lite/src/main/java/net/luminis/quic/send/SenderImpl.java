@@ -439,7 +439,8 @@ public class SenderImpl implements Sender, CongestionControlEventListener {
     }
 
     public SendStatistics getStatistics() {
-        return new SendStatistics(datagramsSent, packetsSent, bytesSent, recoveryManager.getLost());
+        return new SendStatistics(datagramsSent, packetsSent, bytesSent, recoveryManager.getLost(),
+                rttEstimater.getSmoothedRtt());
     }
 
     public int getPto() {
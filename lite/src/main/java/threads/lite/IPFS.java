@@ -55,17 +55,27 @@ import threads.lite.core.Progress;
 import threads.lite.crypto.PrivKey;
 import threads.lite.crypto.Rsa;
 import threads.lite.data.BLOCKS;
+import threads.lite.data.PACKS;
+import threads.lite.data.PINS;
+import threads.lite.data.Storage;
+import threads.lite.dag.GarbageCollector;
+import threads.lite.dag.MutableDirectory;
 import threads.lite.dht.Routing;
+import threads.lite.format.BlockCache;
+import threads.lite.format.BlockFilter;
 import threads.lite.format.BlockStore;
 import threads.lite.format.Node;
+import threads.lite.host.ConnectionManager;
 import threads.lite.host.LiteHost;
 import threads.lite.host.LiteHostCertificate;
 import threads.lite.host.PeerInfo;
+import threads.lite.host.PeerStore;
 import threads.lite.ident.IdentityService;
 import threads.lite.ipns.Ipns;
 import threads.lite.push.Push;
 import threads.lite.push.PushService;
 import threads.lite.relay.RelayService;
+import threads.lite.utils.Car;
 import threads.lite.utils.Link;
 import threads.lite.utils.LinkCloseable;
 import threads.lite.utils.ProgressStream;
@@ -99,10 +109,18 @@ public class IPFS {
     public static final String APRN = "libp2p";
 
     public static final int DEFAULT_PORT = 5001;
-    public static final int PRELOAD = 25;
-    public static final int PRELOAD_DIST = 5;
+    public static final int FETCH_WINDOW = 16; // leaves requested ahead of a reader
+    public static final long FETCH_BUDGET = 1 << 23; // 8 MB requested ahead of a reader
     public static final int CHUNK_SIZE = 262144;
     public static final int BLOCK_SIZE_LIMIT = 1048576; // 1 MB
+    public static final String CHUNKER = "size-" + CHUNK_SIZE;
+    public static final int HAMT_SHARDING_SIZE = 262144; // 256 KB, as in go-ipfs
+    public static final long BLOCK_CACHE_INTERNAL_SIZE = 1 << 22; // 4 MB
+    public static final long BLOCK_CACHE_LEAF_SIZE = 1 << 24; // 16 MB
+    public static final int BLOCK_FILTER_SIZE = 1 << 23; // 4 MB, ~1% false positives at 850k blocks
+    public static final long IMPORT_BUDGET = 1 << 24; // 16 MB of chunks in flight during import
+    public static final int WRITE_BATCH_BLOCKS = 64;
+    public static final long WRITE_BATCH_SIZE = 1 << 24; // 16 MB
     public static final long RESOLVE_MAX_TIME = 30000; // 30 sec
     public static final boolean SEND_DONT_HAVES = false;
     public static final boolean BITSWAP_ENGINE_ACTIVE = true;
@@ -144,7 +162,38 @@ public class IPFS {
 
     public static final int DHT_BUCKET_SIZE = 25;
     public static final int CONNECT_TIMEOUT = 5;
+    // the addresses of a peer are dialed in parallel, staggered by the delay
+    public static final boolean DIAL_PARALLEL = true;
+    public static final long DIAL_STAGGER_DELAY = 250; // milliseconds
     public static final int BITSWAP_IDLE_TIMEOUT = 10;
+    public static final int BITSWAP_BATCH_WINDOW = 10; // milliseconds
+    // HAVE responses of better ranked peers are awaited before a want-block is sent
+    public static final int BITSWAP_HAVE_WINDOW = 30; // milliseconds
+    // a want-block is sent to a second peer when it takes BITSWAP_HEDGE_FACTOR times
+    // longer than the peer usually needs, peers without history are not hedged
+    public static final int BITSWAP_HEDGE_FACTOR = 3;
+    public static final long BITSWAP_HEDGE_MIN_DELAY = 100; // milliseconds
+    // the blocks of the response of a want message must fit into the message size
+    public static final int BITSWAP_MAX_WANT_BLOCKS = MESSAGE_SIZE_MAX / (2 * CHUNK_SIZE);
+    public static final long PEER_STORE_ADDRESS_TTL = 60 * 60 * 1000; // 1 hour
+    // the addresses which connected are kept across restarts
+    public static final long PEER_STORE_CONNECTED_TTL = 7 * 24 * 60 * 60 * 1000L; // 7 days
+    public static final int CONNECTION_LOW_WATER = 32;
+    public static final int CONNECTION_HIGH_WATER = 64;
+    public static final long CONNECTION_GRACE_PERIOD = 30000; // 30 sec
+    public static final long CONNECTION_IDLE_TIMEOUT = 5 * 60 * 1000; // 5 min
+    public static final long CONNECTION_TRIM_INTERVAL = 30; // seconds
+    // answers of the system resolver, which does not tell the ttl of a record
+    public static final long DNS_CACHE_TTL = 5 * 60 * 1000; // 5 min
+    public static final long DNS_MIN_TTL = 30000; // 30 sec
+    public static final long DNS_NEGATIVE_TTL = 30000; // 30 sec
+    // an expired answer is still used while it is refreshed
+    public static final long DNS_MAX_STALE = 60 * 60 * 1000; // 1 hour
+    public static final int DNS_CACHE_SIZE = 256;
+    public static final int BITSWAP_ENGINE_WORKERS = 4;
+    public static final int BITSWAP_ENGINE_MESSAGE_SIZE = 1 << 20; // 1 MB
+    // bytes of the responses which are in flight to one peer
+    public static final int BITSWAP_ENGINE_PEER_BYTES = 1 << 21; // 2 MB
     public static final int CREATE_STREAM_TIMEOUT = 1;
     public static final int BITSWAP_LOAD_PROVIDERS_DELAY = 10000;
     public static final long DHT_REQUEST_READ_TIMEOUT = 5;
@@ -164,6 +213,13 @@ public class IPFS {
     private static final String PRIVATE_KEY = "privateKey";
     private static final String PUBLIC_KEY = "publicKey";
     private static final String CONCURRENCY_KEY = "concurrencyKey";
+    private static final String PACK_STORAGE_KEY = "packStorageKey";
+    private static final String BALANCED_LAYOUT_KEY = "balancedLayoutKey";
+    private static final String CHUNKER_KEY = "chunkerKey";
+    private static final String LOW_WATER_KEY = "lowWaterKey";
+    private static final String HIGH_WATER_KEY = "highWaterKey";
+    private static final String BLOCK_FILTER_FILE = "blocks.filter";
+    private static final String PEER_STORE_FILE = "peers.store";
     private static final String TAG = IPFS.class.getSimpleName();
     private static final String PREF_KEY = "liteKey";
     // rough estimates on expected sizes
@@ -186,16 +242,33 @@ public class IPFS {
     private static IPFS INSTANCE = null;
 
     @NonNull
-    private final BLOCKS blocks;
+    private final Storage storage;
+    @NonNull
+    private final BlockCache blockCache;
+    @Nullable
+    private final BlockFilter blockFilter;
+    @NonNull
+    private final BlockStore blockStore;
+    @NonNull
+    private final PINS pins;
+    @NonNull
+    private final GarbageCollector garbageCollector;
     @NonNull
     private final LiteHost host;
     @NonNull
     private final PrivKey privateKey;
+    private final boolean balancedLayout;
+    @NonNull
+    private final String chunker;
 
 
     private IPFS(@NonNull Context context) throws Exception {
 
-        blocks = BLOCKS.getInstance(context);
+        if (isPackStorage(context)) {
+            storage = PACKS.getInstance(context);
+        } else {
+            storage = BLOCKS.getInstance(context);
+        }
 
         KeyPair keypair = getKeyPair(context);
         privateKey = new Rsa.RsaPrivateKey(keypair.getPrivate(), keypair.getPublic());
@@ -203,9 +276,28 @@ public class IPFS {
                 privateKey, keypair);
 
         int alpha = getConcurrencyValue(context);
-
-        BlockStore blockstore = BlockStore.createBlockStore(blocks);
-        this.host = new LiteHost(selfSignedCertificate, privateKey, blockstore, alpha);
+        balancedLayout = isBalancedLayout(context);
+        chunker = getChunker(context);
+
+        blockCache = new BlockCache(BLOCK_CACHE_INTERNAL_SIZE, BLOCK_CACHE_LEAF_SIZE);
+        BlockStore store = BlockStore.createBlockStore(storage);
+        if (storage instanceof PACKS) {
+            // the pack index is kept in memory, a filter would not save any lookup
+            blockFilter = null;
+        } else {
+            blockFilter = BlockFilter.createBlockFilter(
+                    new File(context.getFilesDir(), BLOCK_FILTER_FILE), BLOCK_FILTER_SIZE, storage);
+            store = BlockStore.createFilteredBlockStore(store, blockFilter);
+        }
+        store = BlockStore.createCachedBlockStore(store, blockCache);
+        pins = PINS.getInstance(context);
+        garbageCollector = new GarbageCollector(store, storage, pins);
+        blockStore = BlockStore.createTrackedBlockStore(store, garbageCollector::stored);
+        PeerStore peerStore = PeerStore.createPeerStore(
+                new File(context.getFilesDir(), PEER_STORE_FILE));
+        this.host = new LiteHost(selfSignedCertificate, privateKey, blockStore,
+                peerStore, alpha, getConnectionLowWater(context),
+                getConnectionHighWater(context));
 
     }
 
@@ -231,6 +323,83 @@ public class IPFS {
         editor.apply();
     }
 
+    public static int getConnectionLowWater(@NonNull Context context) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        return sharedPref.getInt(LOW_WATER_KEY, CONNECTION_LOW_WATER);
+    }
+
+    public static int getConnectionHighWater(@NonNull Context context) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        return sharedPref.getInt(HIGH_WATER_KEY, CONNECTION_HIGH_WATER);
+    }
+
+    // takes effect with the next start
+    public static void setConnectionWatermarks(@NonNull Context context, int low, int high) {
+        Objects.requireNonNull(context);
+        if (low < 0 || high < low) {
+            throw new RuntimeException("invalid watermarks " + low + " " + high);
+        }
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        editor.putInt(LOW_WATER_KEY, low);
+        editor.putInt(HIGH_WATER_KEY, high);
+        editor.apply();
+    }
+
+    public static boolean isPackStorage(@NonNull Context context) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        return sharedPref.getBoolean(PACK_STORAGE_KEY, false);
+    }
+
+    // Note: has only an effect before the first IPFS instance is created,
+    // blocks are not migrated between the storage implementations
+    public static void setPackStorage(@NonNull Context context, boolean enable) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        editor.putBoolean(PACK_STORAGE_KEY, enable);
+        editor.apply();
+    }
+
+    public static boolean isBalancedLayout(@NonNull Context context) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        return sharedPref.getBoolean(BALANCED_LAYOUT_KEY, false);
+    }
+
+    // Note: has only an effect before the first IPFS instance is created,
+    // the balanced layout gives faster random access, the trickle layout
+    // (default) faster sequential streaming
+    public static void setBalancedLayout(@NonNull Context context, boolean enable) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        editor.putBoolean(BALANCED_LAYOUT_KEY, enable);
+        editor.apply();
+    }
+
+    @NonNull
+    public static String getChunker(@NonNull Context context) {
+        Objects.requireNonNull(context);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        return Objects.requireNonNull(sharedPref.getString(CHUNKER_KEY, CHUNKER));
+    }
+
+    // Note: has only an effect before the first IPFS instance is created, chunker names
+    // as in go-ipfs (size-[bytes], rabin-[min]-[avg]-[max]), the content defined chunker
+    // deduplicates the unchanged parts of modified files
+    public static void setChunker(@NonNull Context context, @NonNull String chunker) {
+        Objects.requireNonNull(context);
+        Objects.requireNonNull(chunker);
+        SharedPreferences sharedPref = context.getSharedPreferences(PREF_KEY, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sharedPref.edit();
+        editor.putString(CHUNKER_KEY, chunker);
+        editor.apply();
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public static long copy(InputStream source, OutputStream sink) throws IOException {
         long nread = 0L;
@@ -403,23 +572,45 @@ public class IPFS {
         }
     }
 
-    /**
-     * Note: be carefully on using it on a directory
-     * (recursion problem using same file in different locations)
-     *
-     * @param cid Cid object
-     */
+    // removes the blocks of the dag, blocks which are reachable from a pin are kept
     public void rm(@NonNull Cid cid) {
         try {
-            BlockStore bs = BlockStore.createBlockStore(blocks);
-            List<Cid> cids = getBlocks(cid);
-            cids.add(cid);
-            bs.deleteBlocks(cids);
+            garbageCollector.remove(() -> false, cid);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
     }
 
+    public void pin(@NonNull Cid cid) {
+        garbageCollector.pin(cid);
+    }
+
+    public void unpin(@NonNull Cid cid) {
+        garbageCollector.unpin(cid);
+    }
+
+    public boolean isPinned(@NonNull Cid cid) {
+        return pins.isPinned(cid.bytes());
+    }
+
+    @NonNull
+    public List<Cid> getPins() {
+        List<Cid> result = new ArrayList<>();
+        for (byte[] id : pins.getPins()) {
+            result.add(new Cid(id));
+        }
+        return result;
+    }
+
+    // removes all blocks which are not reachable from a pin in the background
+    public void gc() {
+        garbageCollector.schedule();
+    }
+
+    public void gc(@NonNull Closeable closeable) throws ClosedException {
+        garbageCollector.collect(closeable);
+    }
+
     public List<Cid> getBlocks(@NonNull Cid cid) throws ClosedException {
         List<Cid> result = new ArrayList<>();
         List<Link> links = ls(cid, false, () -> false);
@@ -468,7 +659,8 @@ public class IPFS {
     public Cid storeInputStream(@NonNull InputStream inputStream,
                                 @NonNull Progress progress, long size) {
 
-        return Stream.write(blocks, new WriterStream(inputStream, progress, size));
+        return Stream.write(blockStore, new WriterStream(inputStream, progress, size),
+                balancedLayout, chunker);
 
     }
 
@@ -511,15 +703,15 @@ public class IPFS {
 
         threads.lite.utils.Reader reader = getReader(cid, progress);
         long size = reader.getSize();
-        byte[] buf = reader.loadNextData();
-        while (buf != null && buf.length > 0) {
+        ByteString buf = reader.loadNextData();
+        while (buf != null && !buf.isEmpty()) {
 
             if (progress.isClosed()) {
                 throw new ClosedException();
             }
 
             // calculate progress
-            totalRead += buf.length;
+            totalRead += buf.size();
             if (progress.doProgress()) {
                 if (size > 0) {
                     int percent = (int) ((totalRead * 100.0f) / size);
@@ -530,7 +722,7 @@ public class IPFS {
                 }
             }
 
-            os.write(buf, 0, buf.length);
+            buf.writeTo(os);
 
             buf = reader.loadNextData();
 
@@ -541,14 +733,35 @@ public class IPFS {
                                     @NonNull Closeable closeable) throws ClosedException, IOException {
 
         Reader reader = getReader(cid, closeable);
-        byte[] buf = reader.loadNextData();
-        while (buf != null && buf.length > 0) {
+        ByteString buf = reader.loadNextData();
+        while (buf != null && !buf.isEmpty()) {
 
-            os.write(buf, 0, buf.length);
+            buf.writeTo(os);
             buf = reader.loadNextData();
         }
     }
 
+    // the dag of the cid as car archive, all blocks of the dag must be stored locally
+    public void storeToCar(@NonNull OutputStream os, @NonNull Cid cid,
+                           @NonNull Closeable closeable) throws ClosedException, IOException {
+        Car.write(closeable, blockStore, cid, os);
+    }
+
+    // the blocks of the car archive are stored, returns the roots of the archive, the
+    // roots are pinned when requested, otherwise the blocks are removed by the next
+    // garbage collections unless the caller pins them
+    @NonNull
+    public List<Cid> storeCar(@NonNull InputStream is, @NonNull Closeable closeable,
+                              boolean pin) throws ClosedException, IOException {
+        List<Cid> roots = Car.read(closeable, blockStore, is);
+        if (pin) {
+            for (Cid root : roots) {
+                pin(root);
+            }
+        }
+        return roots;
+    }
+
     @NonNull
     public byte[] getData(@NonNull Cid cid, @NonNull Progress progress) throws IOException, ClosedException {
 
@@ -570,7 +783,7 @@ public class IPFS {
     @Nullable
     public Cid rmLinkFromDir(@NonNull Cid dir, String name) {
         try {
-            return Stream.removeLinkFromDir(blocks, () -> false, dir, name);
+            return Stream.removeLinkFromDir(blockStore, () -> false, dir, name);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
@@ -580,17 +793,24 @@ public class IPFS {
     @Nullable
     public Cid addLinkToDir(@NonNull Cid dir, @NonNull String name, @NonNull Cid link) {
         try {
-            return Stream.addLinkToDir(blocks, () -> false, dir, name, link);
+            return Stream.addLinkToDir(blockStore, () -> false, dir, name, link);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
         return null;
     }
 
+    // modifications of the directory are applied with a single commit
+    @NonNull
+    public MutableDirectory openDirectory(@NonNull Cid dir, @NonNull Closeable closeable)
+            throws ClosedException {
+        return Stream.openDirectory(blockStore, closeable, dir);
+    }
+
     @Nullable
     public Cid createEmptyDir() {
         try {
-            return Stream.createEmptyDir(blocks);
+            return Stream.createEmptyDir(blockStore);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
@@ -682,7 +902,7 @@ public class IPFS {
     public Node resolveNode(@NonNull String path, @NonNull Closeable closeable) throws ClosedException {
 
         try {
-            return Resolver.resolveNode(closeable, blocks, host.getBitSwap(), path);
+            return Resolver.resolveNode(closeable, blockStore, host.getBitSwap(), path);
         } catch (ClosedException closedException) {
             throw closedException;
         } catch (Throwable ignore) {
@@ -691,6 +911,11 @@ public class IPFS {
         return null;
     }
 
+    @NonNull
+    public ConnectionManager.Stats getConnectionStats() {
+        return host.getConnectionManager().getStats();
+    }
+
     @NonNull
     public ConcurrentHashMap<PeerId, QuicConnection> getRelays() {
         return host.relays();
@@ -734,6 +959,8 @@ public class IPFS {
                                 boolean result = canHop(conn);
                                 if (result) {
                                     getRelays().put(relay, conn);
+                                    host.getConnectionManager().protect(relay,
+                                            ConnectionManager.RELAY);
                                 }
                             } catch (Throwable throwable) {
                                 LogUtils.error(TAG, throwable);
@@ -799,7 +1026,22 @@ public class IPFS {
     }
 
     public void clearDatabase() {
-        blocks.clear();
+        storage.clear();
+        pins.clear();
+        blockCache.clear();
+        if (blockFilter != null) {
+            blockFilter.clear();
+        }
+    }
+
+    @NonNull
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    @Nullable
+    public BlockFilter getBlockFilter() {
+        return blockFilter;
     }
 
 
@@ -835,7 +1077,7 @@ public class IPFS {
     public Cid resolve(@NonNull String path, @NonNull Closeable closeable) throws ClosedException {
 
         try {
-            Node node = Resolver.resolveNode(closeable, blocks, host.getBitSwap(), path);
+            Node node = Resolver.resolveNode(closeable, blockStore, host.getBitSwap(), path);
             if (node != null) {
                 return node.getCid();
             }
@@ -857,8 +1099,7 @@ public class IPFS {
 
         boolean result;
         try {
-            BlockStore blockstore = BlockStore.createBlockStore(blocks);
-            result = Stream.isDir(closeable, blockstore, host.getBitSwap(), cid);
+            result = Stream.isDir(closeable, blockStore, host.getBitSwap(), cid);
         } catch (ClosedException closedException) {
             throw closedException;
         } catch (Throwable e) {
@@ -905,7 +1146,6 @@ public class IPFS {
 
         List<Link> infoList = new ArrayList<>();
         try {
-            BlockStore blockstore = BlockStore.createBlockStore(blocks);
             Stream.ls(new LinkCloseable() {
 
                 @Override
@@ -917,7 +1157,7 @@ public class IPFS {
                 public void info(@NonNull Link link) {
                     infoList.add(link);
                 }
-            }, blockstore, host.getBitSwap(), cid, resolveChildren);
+            }, blockStore, host.getBitSwap(), cid, resolveChildren);
 
         } catch (ClosedException closedException) {
             throw closedException;
@@ -929,8 +1169,7 @@ public class IPFS {
 
     @NonNull
     public Reader getReader(@NonNull Cid cid, @NonNull Closeable closeable) throws ClosedException {
-        BlockStore blockstore = BlockStore.createBlockStore(blocks);
-        return Reader.getReader(closeable, blockstore, host.getBitSwap(), cid);
+        return Reader.getReader(closeable, blockStore, host.getBitSwap(), cid);
     }
 
     private void getToOutputStream(@NonNull OutputStream outputStream, @NonNull Cid cid,
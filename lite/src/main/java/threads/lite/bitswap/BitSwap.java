@@ -34,10 +34,13 @@ public class BitSwap implements Exchange {
     private final BitSwapManager bitSwapManager;
     @NonNull
     private final BitSwapEngine engine;
+    @NonNull
+    private final LiteHost host;
 
     public BitSwap(@NonNull BlockStore blockstore, @NonNull LiteHost host) {
+        this.host = host;
         bitSwapManager = new BitSwapManager(this, blockstore, host);
-        engine = new BitSwapEngine(blockstore, host.self());
+        engine = new BitSwapEngine(this, blockstore, host.self());
     }
 
     @Nullable
@@ -56,15 +59,20 @@ public class BitSwap implements Exchange {
         bitSwapManager.reset();
     }
 
-    @Nullable
-    public BitSwapMessage receiveMessage(@NonNull QuicStream quicStream, @NonNull BitSwapMessage bsm) {
+    // the connection was closed by the connection manager
+    public void peerClosed(@NonNull QuicConnection conn) {
+        bitSwapManager.peerClosed(conn);
+        engine.peerClosed(conn);
+    }
+
+    // the wants of the message are served in the background by the engine
+    public void receiveMessage(@NonNull QuicStream quicStream, @NonNull BitSwapMessage bsm) {
 
         receiveMessage(quicStream.getConnection(), bsm);
 
         if (IPFS.BITSWAP_ENGINE_ACTIVE) {
-            return engine.messageReceived(bsm);
+            engine.messageReceived(quicStream.getConnection(), bsm);
         }
-        return null;
 
     }
 
@@ -74,57 +82,46 @@ public class BitSwap implements Exchange {
         LogUtils.debug(TAG, "ReceiveMessage " +
                 conn.getRemoteAddress().toString());
 
+        host.getConnectionManager().touch(conn);
+
         List<Block> wanted = bsm.Blocks();
         List<Cid> haves = bsm.Haves();
-        if (wanted.size() > 0 || haves.size() > 0) {
+        List<Cid> dontHaves = bsm.DontHaves();
+        if (wanted.size() > 0 || haves.size() > 0 || dontHaves.size() > 0) {
             for (Block block : wanted) {
                 LogUtils.info(TAG, "Block Received " + block.getCid().String() + " " +
                         conn.getRemoteAddress().toString());
-                bitSwapManager.blockReceived(block);
+                bitSwapManager.blockReceived(conn, block);
             }
 
             bitSwapManager.haveReceived(conn, haves);
+            bitSwapManager.dontHaveReceived(conn, dontHaves);
         }
 
     }
 
-    void sendHaveMessage(@NonNull QuicConnection conn, @NonNull List<Cid> haves) {
-        sendHaves(conn, haves, (bsm) -> receiveMessage(conn, bsm));
+    void sendMessage(@NonNull QuicConnection conn, @NonNull BitSwapMessage message) {
+        writeMessage(conn, message, (bsm) -> receiveMessage(conn, bsm), IPFS.PRIORITY_URGENT);
     }
 
-
-    private void sendHaves(@NonNull QuicConnection conn, @NonNull List<Cid> haves,
-                           @NonNull Consumer<BitSwapMessage> consumer) {
-        if (haves.size() == 0) {
+    // the blocks of a response are written and the stream is closed, the reply of the
+    // remote is not awaited, so a sender is not blocked by a slow or silent peer
+    void sendResponse(@NonNull QuicConnection conn, @NonNull BitSwapMessage message) {
+        if (!IPFS.BITSWAP_REQUEST_ACTIVE) {
             return;
         }
-
-        int priority = Integer.MAX_VALUE;
-
-        BitSwapMessage message = BitSwapMessage.New(false);
-
-        for (Cid c : haves) {
-
-            // Broadcast wants are sent as want-have
-            MessageOuterClass.Message.Wantlist.WantType wantType =
-                    MessageOuterClass.Message.Wantlist.WantType.Have;
-
-            message.AddEntry(c, priority, wantType, false);
-
-            priority--;
-        }
-
-        if (message.Empty()) {
-            return;
+        host.getConnectionManager().touch(conn);
+        try {
+            QuicStream quicStream = conn.createStream(true,
+                    IPFS.BITSWAP_IDLE_TIMEOUT, TimeUnit.SECONDS);
+            OutputStream outputStream = quicStream.getOutputStream();
+            outputStream.write(DataHandler.writeToken(
+                    IPFS.STREAM_PROTOCOL, IPFS.BITSWAP_PROTOCOL));
+            outputStream.write(DataHandler.encode(message.ToProtoV1()));
+            outputStream.close();
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, "" + throwable.getMessage());
         }
-
-        writeMessage(conn, message, consumer, IPFS.PRIORITY_URGENT);
-
-
-    }
-
-    void sendWantsMessage(@NonNull QuicConnection conn, @NonNull List<Cid> wants) {
-        sendWants(conn, wants, (bsm) -> receiveMessage(conn, bsm));
     }
 
 
@@ -162,6 +159,8 @@ public class BitSwap implements Exchange {
         if (IPFS.BITSWAP_REQUEST_ACTIVE) {
             boolean success = false;
 
+            host.getConnectionManager().touch(conn);
+
             long time = System.currentTimeMillis();
 
             try {
@@ -1,14 +1,17 @@
 package threads.lite.bitswap;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+
+import net.luminis.quic.QuicConnection;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bitswap.pb.MessageOuterClass;
 import threads.lite.IPFS;
@@ -19,20 +22,30 @@ import threads.lite.format.Block;
 import threads.lite.format.BlockStore;
 
 
+// Wants of the peers are queued and served in the background, the stream of the request
+// is not kept busy. Each response is a message of a bounded size, which is sent on a new
+// stream, the blocks are only loaded when the message is created.
 public class BitSwapEngine {
     public static final int MaxBlockSizeReplaceHasWithBlock = 1024;
     private static final String TAG = BitSwapEngine.class.getSimpleName();
+    private final BitSwap bitSwap;
     private final BlockStore blockstore;
 
     private final PeerId self;
-
-    BitSwapEngine(@NonNull BlockStore bs, @NonNull PeerId self) {
+    private final PeerTaskQueue queue = new PeerTaskQueue(
+            IPFS.BITSWAP_ENGINE_MESSAGE_SIZE, IPFS.BITSWAP_ENGINE_PEER_BYTES);
+    private final ExecutorService executor =
+            Executors.newFixedThreadPool(IPFS.BITSWAP_ENGINE_WORKERS);
+    private final AtomicInteger workers = new AtomicInteger(0);
+
+    BitSwapEngine(@NonNull BitSwap bitSwap, @NonNull BlockStore bs, @NonNull PeerId self) {
+        this.bitSwap = bitSwap;
         this.blockstore = bs;
         this.self = self;
 
     }
 
-    private BitSwapMessage createMessage(@NonNull List<Task> tasks) {
+    private BitSwapMessage createMessage(@NonNull PeerTaskQueue.Batch batch) {
 
         // Create a new message
         BitSwapMessage msg = BitSwapMessage.New(false);
@@ -41,20 +54,23 @@ public class BitSwapEngine {
                 "Bitswap process tasks" + " local " + self.toBase58());
 
         // Amount of data in the request queue still waiting to be popped
-        msg.SetPendingBytes(0);
-
-        // Split out want-blocks, want-haves and DONT_HAVEs
-        List<Cid> blockCids = new ArrayList<>();
-        Map<Cid, TaskData> blockTasks = new HashMap<>();
-
-        for (Task task : tasks) {
-
-            Cid c = task.Topic;
-            TaskData td = task.Data;
-            if (td.HaveBlock) {
-                if (td.IsWantBlock) {
-                    blockCids.add(c);
-                    blockTasks.put(c, td);
+        msg.SetPendingBytes(batch.pending);
+
+        for (PeerTaskQueue.Task task : batch.tasks) {
+
+            Cid c = task.cid;
+            if (task.haveBlock) {
+                if (task.isWantBlock) {
+                    Block blk = blockstore.getBlock(c);
+                    // If the block was not found (it has been removed)
+                    if (blk == null) {
+                        // If the client requested DONT_HAVE, add DONT_HAVE to the message
+                        if (task.sendDontHave) {
+                            msg.AddDontHave(c);
+                        }
+                    } else {
+                        msg.AddBlock(blk);
+                    }
                 } else {
                     // Add HAVES to the message
                     msg.AddHave(c);
@@ -64,20 +80,6 @@ public class BitSwapEngine {
                 msg.AddDontHave(c);
             }
         }
-
-        Map<Cid, Block> blks = getBlocks(blockCids);
-        for (Map.Entry<Cid, TaskData> entry : blockTasks.entrySet()) {
-            Block blk = blks.get(entry.getKey());
-            // If the block was not found (it has been removed)
-            if (blk == null) {
-                // If the client requested DONT_HAVE, add DONT_HAVE to the message
-                if (entry.getValue().SendDontHave) {
-                    msg.AddDontHave(entry.getKey());
-                }
-            } else {
-                msg.AddBlock(blk);
-            }
-        }
         return msg;
 
     }
@@ -93,11 +95,20 @@ public class BitSwapEngine {
         return wants;
     }
 
-    @Nullable
-    public BitSwapMessage messageReceived(@NonNull BitSwapMessage bsm) {
+    public void messageReceived(@NonNull QuicConnection conn, @NonNull BitSwapMessage bsm) {
 
         List<BitSwapMessage.Entry> entries = bsm.Wantlist();
 
+        List<Cid> cancels = new ArrayList<>();
+        for (BitSwapMessage.Entry entry : entries) {
+            if (entry.Cancel) {
+                cancels.add(entry.Cid);
+            }
+        }
+        if (!cancels.isEmpty()) {
+            queue.cancel(conn, cancels);
+        }
+
         List<BitSwapMessage.Entry> wants = filterWantsCancels(entries);
 
         Set<Cid> wantKs = new HashSet<>();
@@ -108,7 +119,7 @@ public class BitSwapEngine {
 
         HashMap<Cid, Integer> blockSizes = getBlockSizes(wantKs);
 
-        List<Task> tasks = new ArrayList<>();
+        List<PeerTaskQueue.Task> tasks = new ArrayList<>();
 
         for (BitSwapMessage.Entry entry : wants) {
             // For each want-have / want-block
@@ -130,9 +141,8 @@ public class BitSwapEngine {
                         isWantBlock = true;
                     }
 
-                    Task task = new Task(c, new TaskData(false,
-                            isWantBlock, entry.SendDontHave));
-                    tasks.add(task);
+                    tasks.add(new PeerTaskQueue.Task(c, entry.Priority, false,
+                            isWantBlock, entry.SendDontHave, BitSwapMessage.BlockPresenceSize(c)));
 
                 }
             } else {
@@ -142,35 +152,64 @@ public class BitSwapEngine {
                         "Bitswap engine: block found" +
                                 " cid " + entry.Cid.String() + " isWantBlock " + isWantBlock);
 
-                Task task = new Task(c, new TaskData(true, isWantBlock, entry.SendDontHave));
-                tasks.add(task);
+                int size = isWantBlock ? blockSize : BitSwapMessage.BlockPresenceSize(c);
+                tasks.add(new PeerTaskQueue.Task(c, entry.Priority, true,
+                        isWantBlock, entry.SendDontHave, size));
             }
         }
-        BitSwapMessage msg = createMessage(tasks);
-        if (!msg.Empty()) {
-            return msg;
+        if (!tasks.isEmpty()) {
+            queue.push(conn, tasks);
+            schedule();
         }
-        return null;
-
     }
 
-    private boolean sendAsBlock(MessageOuterClass.Message.Wantlist.WantType wantType, Integer blockSize) {
-        boolean isWantBlock = wantType == MessageOuterClass.Message.Wantlist.WantType.Block;
-        return isWantBlock || blockSize <= MaxBlockSizeReplaceHasWithBlock;
+    public void peerClosed(@NonNull QuicConnection conn) {
+        queue.remove(conn);
     }
 
+    // at most BITSWAP_ENGINE_WORKERS workers drain the queue, a worker stops when no
+    // peer can be served, a task queued meanwhile schedules a worker again
+    private void schedule() {
+        if (workers.incrementAndGet() <= IPFS.BITSWAP_ENGINE_WORKERS) {
+            executor.execute(this::work);
+        } else {
+            workers.decrementAndGet();
+        }
+    }
 
-    public Map<Cid, Block> getBlocks(@NonNull List<Cid> cids) {
-        Map<Cid, Block> blks = new HashMap<>();
-        for (Cid c : cids) {
-            Block block = blockstore.getBlock(c);
-            if (block != null) {
-                blks.put(c, block);
+    private void work() {
+        try {
+            PeerTaskQueue.Batch batch;
+            while ((batch = queue.pop()) != null) {
+                try {
+                    if (!batch.conn.isConnected()) {
+                        queue.remove(batch.conn);
+                        continue;
+                    }
+                    BitSwapMessage msg = createMessage(batch);
+                    if (!msg.Empty()) {
+                        bitSwap.sendResponse(batch.conn, msg);
+                    }
+                } catch (Throwable throwable) {
+                    LogUtils.error(TAG, throwable);
+                } finally {
+                    queue.done(batch);
+                }
             }
+        } finally {
+            workers.decrementAndGet();
+        }
+        if (queue.hasWork()) {
+            schedule();
         }
-        return blks;
     }
 
+    private boolean sendAsBlock(MessageOuterClass.Message.Wantlist.WantType wantType, Integer blockSize) {
+        boolean isWantBlock = wantType == MessageOuterClass.Message.Wantlist.WantType.Block;
+        return isWantBlock || blockSize <= MaxBlockSizeReplaceHasWithBlock;
+    }
+
+
     public HashMap<Cid, Integer> getBlockSizes(@NonNull Set<Cid> wantKs) {
 
         HashMap<Cid, Integer> sizes = new HashMap<>();
@@ -183,36 +222,4 @@ public class BitSwapEngine {
         return sizes;
     }
 
-
-    private static class Task {
-        // Topic for the task
-        public final Cid Topic;
-        // Arbitrary data associated with this Task by the client
-        public final TaskData Data;
-
-        public Task(@NonNull Cid topic, @NonNull TaskData data) {
-            this.Topic = topic;
-            this.Data = data;
-        }
-
-    }
-
-
-    private static class TaskData {
-        // Tasks can be want-have or want-block
-        final boolean IsWantBlock;
-        // Whether to immediately send a response if the block is not found
-        final boolean SendDontHave;
-        // Whether the block was found
-        final boolean HaveBlock;
-
-        public TaskData(boolean haveBlock, boolean isWantBlock, boolean sendDontHave) {
-            this.SendDontHave = sendDontHave;
-            this.IsWantBlock = isWantBlock;
-            this.HaveBlock = haveBlock;
-        }
-
-
-    }
-
 }
@@ -4,20 +4,14 @@ import androidx.annotation.NonNull;
 
 import net.luminis.quic.QuicConnection;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import threads.lite.IPFS;
 import threads.lite.LogUtils;
@@ -39,30 +33,34 @@ public class BitSwapManager {
     private final ScheduledThreadPoolExecutor providers = new ScheduledThreadPoolExecutor(6);
     private final ExecutorService connector = Executors.newFixedThreadPool(6);
     private final ConcurrentHashMap<QuicConnection, Boolean> peers = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Cid, ConcurrentLinkedDeque<QuicConnection>> matches = new ConcurrentHashMap<>();
-    private final Blocker blocker = new Blocker();
-    private final BitSwap bitSwap;
+    private final WantRegistry wants = new WantRegistry();
+    private final PeerStats stats = new PeerStats();
+    private final WantSession session;
 
     public BitSwapManager(@NonNull BitSwap bitSwap, @NonNull BlockStore blockStore, @NonNull LiteHost host) {
-        this.bitSwap = bitSwap;
         this.blockStore = blockStore;
         this.host = host;
+        this.session = new WantSession(bitSwap, stats);
     }
 
-    private void addPeer(@NonNull QuicConnection conn, boolean newCreated) {
-        if (!peers.containsKey(conn)) {
-            peers.put(conn, newCreated);
+    private void addPeer(@NonNull QuicConnection conn, @NonNull PeerId peerId, boolean newCreated) {
+        if (peers.putIfAbsent(conn, newCreated) == null) {
+            session.peerAdded(conn, peerId);
+        }
+    }
+
+    public void peerClosed(@NonNull QuicConnection conn) {
+        if (peers.remove(conn) != null) {
+            session.peerRemoved(conn);
         }
     }
 
     public void haveReceived(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        session.haveReceived(conn, cids);
+    }
 
-        for (Cid cid : cids) {
-            ConcurrentLinkedDeque<QuicConnection> res = matches.get(cid);
-            if (res != null) {
-                res.add(conn);
-            }
-        }
+    public void dontHaveReceived(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        session.dontHaveReceived(conn, cids);
     }
 
     public void reset() {
@@ -80,7 +78,8 @@ public class BitSwapManager {
         }
         try {
             peers.clear();
-            matches.clear();
+            session.reset();
+            wants.clear();
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
@@ -109,7 +108,7 @@ public class BitSwapManager {
                 return;
             }
 
-            addPeer(conn, !wasConn);
+            addPeer(conn, peerId, !wasConn);
         } catch (Throwable ignore) {
             // ignore
         }
@@ -131,7 +130,7 @@ public class BitSwapManager {
                 return;
             }
 
-            addPeer(conn, !wasConn);
+            addPeer(conn, peerId, !wasConn);
 
         } catch (Throwable ignore) {
             // ignore
@@ -156,7 +155,7 @@ public class BitSwapManager {
                 return;
             }
 
-            addPeer(conn, !wasConn);
+            addPeer(conn, peerId, !wasConn);
 
         } catch (Throwable ignore) {
             // ignore
@@ -164,96 +163,12 @@ public class BitSwapManager {
     }
 
 
-    public void runHaveMessage(@NonNull Closeable closeable, QuicConnection conn,
-                               @NonNull List<Cid> cids) {
-        new Thread(() -> {
-            long start = System.currentTimeMillis();
-            boolean success = false;
-            try {
-                if (closeable.isClosed()) {
-                    return;
-                }
-                bitSwap.sendHaveMessage(conn, cids);
-                success = true;
-            } catch (Throwable throwable) {
-                LogUtils.error(TAG, "runHaveMessage " + throwable.getClass().getName());
-            } finally {
-                LogUtils.debug(TAG, "runHaveMessage " + success + " " +
-                        " took " + (System.currentTimeMillis() - start));
-            }
-        }).start();
-    }
-
-
-    public Block runWantHaves(@NonNull Closeable closeable, @NonNull Cid cid) throws ClosedException {
-
-        matches.put(cid, new ConcurrentLinkedDeque<>());
-
-
-        loadProviders(closeable, cid, IPFS.BITSWAP_LOAD_PROVIDERS_DELAY, TimeUnit.SECONDS);
-
-        Set<QuicConnection> haves = new HashSet<>();
-
-        Set<PeerId> swarm = host.getPeers();
-
-        for (PeerId peerId : swarm) {
-            if (!IPFS.BITSWAP_SUPPORT_LOAD_PROVIDERS) {
-                connector.execute(() -> find(closeable, peerId));
-            } else {
-                connector.execute(() -> connect(closeable, peerId));
-            }
-        }
-
-        while (matches.containsKey(cid)) {
-
-            if (closeable.isClosed()) {
-                throw new ClosedException();
-            }
-
-            for (QuicConnection peer : peers.keySet()) {
-                if (!haves.contains(peer)) {
-                    haves.add(peer);
-                    runHaveMessage(closeable, peer, Collections.singletonList(cid));
-                }
-            }
-
-            ConcurrentLinkedDeque<QuicConnection> set = matches.get(cid);
-            if (set != null) {
-                QuicConnection conn = set.poll();
-                if (conn != null) {
-
-                    long start = System.currentTimeMillis();
-                    try {
-                        if (matches.containsKey(cid)) {
-                            bitSwap.sendWantsMessage(conn, Collections.singletonList(cid));
-
-                            blocker.subscribe(cid, closeable);
-                        }
-                    } catch (Throwable throwable) {
-                        LogUtils.error(TAG, throwable);
-                    } finally {
-                        LogUtils.debug(TAG, "Match CID " + cid.String() +
-                                " took " + (System.currentTimeMillis() - start));
-                    }
-                }
-
-            }
-
-            if (closeable.isClosed()) {
-                throw new ClosedException();
-            }
-        }
-        return blockStore.getBlock(cid);
-    }
-
-
-    public void blockReceived(@NonNull Block block) {
+    public void blockReceived(@NonNull QuicConnection conn, @NonNull Block block) {
 
         try {
-            Cid cid = block.getCid();
             blockStore.putBlock(block);
-            matches.remove(cid);
-            blocker.release(cid);
+            session.blockReceived(conn, block.getCid(), block.getRawData().length);
+            wants.complete(block);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
@@ -264,42 +179,62 @@ public class BitSwapManager {
 
         LogUtils.verbose(TAG, "LoadBlocks " + cids.size());
 
-        List<QuicConnection> handled = new ArrayList<>();
-
-        for (QuicConnection conn : peers.keySet()) {
-            if (!handled.contains(conn)) {
-                handled.add(conn);
-                runHaveMessage(closeable, conn, cids);
-            }
+        if (!closeable.isClosed()) {
+            session.preload(cids);
         }
     }
 
     public Block getBlock(@NonNull Closeable closeable, @NonNull Cid cid, boolean root) throws ClosedException {
+        Block block = blockStore.getBlock(cid);
+        if (block != null) {
+            return block;
+        }
+        WantRegistry.Want want = wants.acquire(cid);
         try {
-            synchronized (cid.String().intern()) {
-                Block block = blockStore.getBlock(cid);
-                if (block == null) {
-                    AtomicBoolean done = new AtomicBoolean(false);
-                    LogUtils.info(TAG, "Block Get " + cid.String());
-
-                    if (root) {
-                        loadProviders(() -> closeable.isClosed() || done.get(), cid, 1,
-                                TimeUnit.MILLISECONDS);
-                    }
-                    try {
-                        return runWantHaves(() -> closeable.isClosed() || done.get(), cid);
-                    } finally {
-                        done.set(true);
-                    }
-                }
+            // the block might have been received before the want was registered
+            block = blockStore.getBlock(cid);
+            if (block != null) {
                 return block;
             }
+            if (want.startFetch()) {
+                LogUtils.info(TAG, "Block Get " + cid.String());
+                startFetch(cid, want, root);
+            }
+            while (true) {
+                block = want.await(closeable, IPFS.WANTS_WAIT_TIMEOUT);
+                if (block != null) {
+                    return block;
+                }
+                if (want.isDone()) {
+                    return blockStore.getBlock(cid);
+                }
+            }
         } finally {
-            blocker.release(cid);
+            wants.release(cid, want);
             LogUtils.info(TAG, "Block Release  " + cid.String());
         }
     }
 
+    // the want is scheduled by the session, further peers are connected until it is done
+    private void startFetch(@NonNull Cid cid, @NonNull WantRegistry.Want want, boolean root) {
+        Closeable closeable = want::isDone;
+
+        session.want(cid, want);
+
+        if (root) {
+            loadProviders(closeable, cid, 1, TimeUnit.MILLISECONDS);
+        }
+        loadProviders(closeable, cid, IPFS.BITSWAP_LOAD_PROVIDERS_DELAY, TimeUnit.SECONDS);
+
+        for (PeerId peerId : host.getPeers()) {
+            if (!IPFS.BITSWAP_SUPPORT_LOAD_PROVIDERS) {
+                connector.execute(() -> find(closeable, peerId));
+            } else {
+                connector.execute(() -> connect(closeable, peerId));
+            }
+        }
+    }
+
     private void loadProviders(@NonNull Closeable closeable, @NonNull Cid cid,
                                long delay, @NonNull TimeUnit delayUnit) {
 
@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -49,8 +50,9 @@ public interface BitSwapMessage {
         for (MessageOuterClass.Message.Block b : pbm.getPayloadList()) {
             ByteString prefix = b.getPrefix();
             Prefix pref = Prefix.getPrefixFromBytes(prefix.toByteArray());
-            Cid cid = pref.sum(b.getData().toByteArray());
-            Block block = BasicBlock.createBlockWithCid(cid, b.getData().toByteArray());
+            byte[] data = b.getData().toByteArray();
+            Cid cid = pref.sum(data);
+            Block block = BasicBlock.createBlockWithCid(cid, data);
             m.AddBlock(block);
         }
 
@@ -379,7 +381,7 @@ public interface BitSwapMessage {
 
             for (Block block : Blocks()) {
                 builder.addPayload(MessageOuterClass.Message.Block.newBuilder()
-                        .setData(ByteString.copyFrom(block.getRawData()))
+                        .setData(UnsafeByteOperations.unsafeWrap(block.getRawData()))
                         .setPrefix(ByteString.copyFrom(block.getCid().getPrefix().bytes())).build());
             }
 
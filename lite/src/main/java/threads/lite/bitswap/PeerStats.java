@@ -0,0 +1,138 @@
+package threads.lite.bitswap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import threads.lite.IPFS;
+import threads.lite.cid.PeerId;
+
+// Statistics of the peers which were asked for blocks, kept for the lifetime of the
+// bitswap instance, so they survive reconnects and are shared by all wants.
+// Only the most recently used peers are kept, a lookup does not add a peer.
+// The cost of a peer estimates the time to receive a block from it.
+public class PeerStats {
+
+    private static final double ALPHA = 0.3; // weight of a new sample
+    private static final long DEFAULT_LATENCY = IPFS.WANTS_WAIT_TIMEOUT / 2; // milliseconds
+    private static final int MAX_PEERS = 1024;
+
+    @NonNull
+    private final LinkedHashMap<PeerId, Stats> stats =
+            new LinkedHashMap<PeerId, Stats>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<PeerId, Stats> eldest) {
+                    return size() > MAX_PEERS;
+                }
+            };
+
+    @NonNull
+    private Stats get(@NonNull PeerId peerId) {
+        synchronized (stats) {
+            Stats entry = stats.get(peerId);
+            if (entry == null) {
+                entry = new Stats();
+                stats.put(peerId, entry);
+            }
+            return entry;
+        }
+    }
+
+    @Nullable
+    private Stats peek(@NonNull PeerId peerId) {
+        synchronized (stats) {
+            return stats.get(peerId);
+        }
+    }
+
+    public void requested(@NonNull PeerId peerId) {
+        Stats entry = get(peerId);
+        synchronized (entry) {
+            entry.requests++;
+        }
+    }
+
+    public void delivered(@NonNull PeerId peerId, int bytes, long millis) {
+        Stats entry = get(peerId);
+        long latency = Math.max(millis, 1);
+        double throughput = (bytes * 1000.0) / latency;
+        synchronized (entry) {
+            entry.delivered++;
+            if (entry.latency == 0) {
+                entry.latency = latency;
+                entry.throughput = throughput;
+            } else {
+                entry.latency = ALPHA * latency + (1 - ALPHA) * entry.latency;
+                entry.throughput = ALPHA * throughput + (1 - ALPHA) * entry.throughput;
+            }
+        }
+    }
+
+    public void timeout(@NonNull PeerId peerId) {
+        Stats entry = get(peerId);
+        synchronized (entry) {
+            entry.timeouts++;
+        }
+    }
+
+    public void dontHave(@NonNull PeerId peerId) {
+        Stats entry = get(peerId);
+        synchronized (entry) {
+            entry.dontHaves++;
+        }
+    }
+
+    // Estimated milliseconds to receive a block from the peer, rtt is the smoothed rtt
+    // of the connection (0 when unknown). It is 0 when the peer delivered no block yet.
+    public double expected(@NonNull PeerId peerId, int rtt) {
+        Stats entry = peek(peerId);
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return expected(entry, rtt);
+        }
+    }
+
+    // holds the lock of the entry
+    private static double expected(@NonNull Stats entry, int rtt) {
+        if (entry.throughput > 0 && rtt > 0) {
+            return rtt + (IPFS.CHUNK_SIZE * 1000.0) / entry.throughput;
+        } else if (entry.throughput > 0) {
+            return entry.latency;
+        }
+        return 0;
+    }
+
+    // Estimated milliseconds to receive a block, pending is the number of outstanding
+    // requests. Unknown peers get an optimistic estimate, so that they are tried as well.
+    public double cost(@NonNull PeerId peerId, int rtt, int pending) {
+        Stats entry = peek(peerId);
+        if (entry == null) {
+            entry = new Stats();
+        }
+        double expected;
+        double failures;
+        synchronized (entry) {
+            expected = expected(entry, rtt);
+            // estimated with one success and one failure up front
+            failures = (entry.timeouts + entry.dontHaves + 1.0) / (entry.requests + 2.0);
+        }
+        if (expected == 0) {
+            expected = rtt > 0 ? 2 * rtt : DEFAULT_LATENCY;
+        }
+        // outstanding requests share the bandwidth of the peer
+        return expected * (1 + pending) / Math.max(1 - failures, 0.05);
+    }
+
+    private static class Stats {
+        long requests = 0;
+        long delivered = 0;
+        long timeouts = 0;
+        long dontHaves = 0;
+        double latency = 0; // milliseconds from want-block to block
+        double throughput = 0; // bytes per second
+    }
+}
@@ -0,0 +1,229 @@
+package threads.lite.bitswap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.luminis.quic.QuicConnection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import threads.lite.cid.Cid;
+
+// The wants of the peers which are not served yet. The peer with the fewest bytes in
+// flight is served next, among equals the one which waits the longest, a peer which has
+// reached its limit of bytes in flight is skipped until one of its batches is done.
+// Within a peer the tasks are served by the priority of the want, then by arrival.
+public class PeerTaskQueue {
+
+    private final int messageSize;
+    private final int peerBytes;
+    @NonNull
+    private final LinkedHashMap<QuicConnection, PeerTasks> peers = new LinkedHashMap<>();
+    private long sequence = 0L;
+
+    public PeerTaskQueue(int messageSize, int peerBytes) {
+        this.messageSize = messageSize;
+        this.peerBytes = peerBytes;
+    }
+
+    // a task for a cid which is already queued is merged into the queued one
+    public synchronized void push(@NonNull QuicConnection conn, @NonNull List<Task> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        PeerTasks peer = peers.get(conn);
+        if (peer == null) {
+            peer = new PeerTasks(conn);
+            peers.put(conn, peer);
+        }
+        for (Task task : tasks) {
+            Task queued = peer.tasks.get(task.cid);
+            if (queued == null) {
+                task.sequence = sequence++;
+                peer.add(task);
+            } else {
+                peer.remove(queued);
+                queued.merge(task);
+                peer.add(queued);
+            }
+        }
+    }
+
+    public synchronized void cancel(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        PeerTasks peer = peers.get(conn);
+        if (peer == null) {
+            return;
+        }
+        for (Cid cid : cids) {
+            Task queued = peer.tasks.get(cid);
+            if (queued != null) {
+                peer.remove(queued);
+            }
+        }
+        removeIfIdle(peer);
+    }
+
+    // the tasks of the next message, the bytes are in flight until the batch is done
+    @Nullable
+    public synchronized Batch pop() {
+        PeerTasks next = null;
+        for (PeerTasks peer : peers.values()) {
+            if (peer.ordered.isEmpty() || peer.active >= peerBytes) {
+                continue;
+            }
+            if (next == null || peer.active < next.active) {
+                next = peer;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+
+        List<Task> tasks = new ArrayList<>();
+        int size = 0;
+        Iterator<Task> iterator = next.ordered.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (!tasks.isEmpty() && size + task.size > messageSize) {
+                break;
+            }
+            iterator.remove();
+            next.tasks.remove(task.cid);
+            next.pending -= task.size;
+            tasks.add(task);
+            size += task.size;
+        }
+        next.active += size;
+
+        // the served peer waits at the end for its next turn
+        peers.remove(next.conn);
+        peers.put(next.conn, next);
+        return new Batch(next.conn, tasks, size, next.pending);
+    }
+
+    public synchronized void done(@NonNull Batch batch) {
+        PeerTasks peer = peers.get(batch.conn);
+        if (peer != null) {
+            peer.active -= batch.size;
+            removeIfIdle(peer);
+        }
+    }
+
+    public synchronized void remove(@NonNull QuicConnection conn) {
+        PeerTasks peer = peers.get(conn);
+        if (peer != null) {
+            peer.clear();
+            removeIfIdle(peer);
+        }
+    }
+
+    public synchronized boolean hasWork() {
+        for (PeerTasks peer : peers.values()) {
+            if (!peer.ordered.isEmpty() && peer.active < peerBytes) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeIfIdle(@NonNull PeerTasks peer) {
+        if (peer.ordered.isEmpty() && peer.active <= 0) {
+            peers.remove(peer.conn);
+        }
+    }
+
+    public static class Task {
+        @NonNull
+        final Cid cid;
+        int priority;
+        // Tasks can be want-have or want-block
+        boolean isWantBlock;
+        // Whether to immediately send a response if the block is not found
+        boolean sendDontHave;
+        // Whether the block was found
+        boolean haveBlock;
+        // the bytes of the task in a message
+        int size;
+        long sequence;
+
+        public Task(@NonNull Cid cid, int priority, boolean haveBlock, boolean isWantBlock,
+                    boolean sendDontHave, int size) {
+            this.cid = cid;
+            this.priority = priority;
+            this.haveBlock = haveBlock;
+            this.isWantBlock = isWantBlock;
+            this.sendDontHave = sendDontHave;
+            this.size = size;
+        }
+
+        void merge(@NonNull Task task) {
+            priority = Math.max(priority, task.priority);
+            // a want-block supersedes a want-have of the same cid
+            if (task.isWantBlock && !isWantBlock) {
+                isWantBlock = true;
+                size = task.size;
+            }
+            haveBlock = task.haveBlock;
+            sendDontHave |= task.sendDontHave;
+        }
+    }
+
+    public static class Batch {
+        @NonNull
+        final QuicConnection conn;
+        @NonNull
+        final List<Task> tasks;
+        final int size;
+        // bytes of the peer which are still queued
+        final int pending;
+
+        Batch(@NonNull QuicConnection conn, @NonNull List<Task> tasks, int size, int pending) {
+            this.conn = conn;
+            this.tasks = tasks;
+            this.size = size;
+            this.pending = pending;
+        }
+    }
+
+    private static class PeerTasks {
+        @NonNull
+        final QuicConnection conn;
+        @NonNull
+        final Map<Cid, Task> tasks = new HashMap<>();
+        @NonNull
+        final TreeSet<Task> ordered = new TreeSet<>(Comparator
+                .comparingInt((Task task) -> task.priority).reversed()
+                .thenComparingLong(task -> task.sequence));
+        int pending = 0;
+        int active = 0;
+
+        PeerTasks(@NonNull QuicConnection conn) {
+            this.conn = conn;
+        }
+
+        void add(@NonNull Task task) {
+            tasks.put(task.cid, task);
+            ordered.add(task);
+            pending += task.size;
+        }
+
+        void remove(@NonNull Task task) {
+            tasks.remove(task.cid);
+            ordered.remove(task);
+            pending -= task.size;
+        }
+
+        void clear() {
+            tasks.clear();
+            ordered.clear();
+            pending = 0;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package threads.lite.bitswap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.format.Block;
+
+// Each wanted cid maps to one future, which is shared by all concurrent requesters
+// of the cid. A received block completes the future, when the last requester
+// releases its want the future is cancelled.
+public class WantRegistry {
+
+    private static final long CLOSE_CHECK_INTERVAL = 100; // milliseconds
+
+    @NonNull
+    private final ConcurrentHashMap<Cid, Want> wants = new ConcurrentHashMap<>();
+
+    @NonNull
+    public Want acquire(@NonNull Cid cid) {
+        return wants.compute(cid, (key, want) -> {
+            if (want == null || want.future.isDone()) {
+                want = new Want();
+            }
+            want.references++;
+            return want;
+        });
+    }
+
+    public void release(@NonNull Cid cid, @NonNull Want want) {
+        wants.computeIfPresent(cid, (key, value) -> {
+            if (value != want) {
+                return value;
+            }
+            value.references--;
+            if (value.references <= 0) {
+                value.future.cancel(false);
+                return null;
+            }
+            return value;
+        });
+    }
+
+    public void complete(@NonNull Block block) {
+        Want want = wants.remove(block.getCid());
+        if (want != null) {
+            want.future.complete(block);
+        }
+    }
+
+    public void clear() {
+        for (Want want : wants.values()) {
+            want.future.cancel(false);
+        }
+        wants.clear();
+    }
+
+    public static class Want {
+        @NonNull
+        private final CompletableFuture<Block> future = new CompletableFuture<>();
+        private int references = 0; // guarded by the compute functions of the registry
+        private boolean fetching = false;
+
+        // only the first requester of a want starts the fetch, all await the result
+        synchronized boolean startFetch() {
+            if (fetching) {
+                return false;
+            }
+            fetching = true;
+            return true;
+        }
+
+        void whenDone(@NonNull Runnable runnable) {
+            future.whenComplete((block, throwable) -> runnable.run());
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Nullable
+        public Block getBlock() {
+            try {
+                return future.getNow(null);
+            } catch (CancellationException | CompletionException ignore) {
+                return null;
+            }
+        }
+
+        // Parks the caller until the block is received or the timeout elapsed,
+        // the closeable is checked in between without an additional thread
+        @Nullable
+        public Block await(@NonNull Closeable closeable, long timeout) throws ClosedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                if (future.isDone()) {
+                    return getBlock();
+                }
+                if (closeable.isClosed()) {
+                    throw new ClosedException();
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                try {
+                    return future.get(Math.min(remaining, CLOSE_CHECK_INTERVAL),
+                            TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignore) {
+                    // check the closeable again
+                } catch (CancellationException | ExecutionException ignore) {
+                    return null;
+                } catch (InterruptedException interruptedException) {
+                    throw new ClosedException();
+                }
+            }
+        }
+    }
+}
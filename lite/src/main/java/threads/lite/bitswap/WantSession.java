@@ -0,0 +1,524 @@
+package threads.lite.bitswap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.luminis.quic.QuicConnection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import bitswap.pb.MessageOuterClass;
+import threads.lite.IPFS;
+import threads.lite.LogUtils;
+import threads.lite.cid.Cid;
+import threads.lite.cid.PeerId;
+
+// Schedules the wants of all active block requests. The state is only accessed by the
+// single event loop thread, which reacts on new wants, peers, HAVE and DONT_HAVE
+// responses, received blocks and request timeouts, and parks when there is no event.
+// Outgoing entries are batched per peer.
+public class WantSession {
+
+    private static final String TAG = WantSession.class.getSimpleName();
+    private static final int MESSAGE_SIZE_RESERVE = 1024; // protobuf framing of the message
+
+    @NonNull
+    private final BitSwap bitSwap;
+    @NonNull
+    private final ExecutorService loop = Executors.newSingleThreadExecutor();
+    @NonNull
+    private final ExecutorService sender = Executors.newCachedThreadPool();
+    @NonNull
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    @NonNull
+    private final HashMap<Cid, Wanted> wanted = new HashMap<>();
+    @NonNull
+    private final HashMap<QuicConnection, PeerId> peers = new HashMap<>();
+    // number of outstanding want-blocks of a connection
+    @NonNull
+    private final HashMap<QuicConnection, Integer> pending = new HashMap<>();
+    @NonNull
+    private final PeerStats stats;
+    @NonNull
+    private final HashMap<QuicConnection, Outbound> outbound = new HashMap<>();
+
+    public WantSession(@NonNull BitSwap bitSwap, @NonNull PeerStats stats) {
+        this.bitSwap = bitSwap;
+        this.stats = stats;
+    }
+
+    public void want(@NonNull Cid cid, @NonNull WantRegistry.Want want) {
+        want.whenDone(() -> loop.execute(() -> onDone(cid, want)));
+        loop.execute(() -> onWant(cid, want));
+    }
+
+    public void preload(@NonNull List<Cid> cids) {
+        loop.execute(() -> {
+            for (QuicConnection conn : peers.keySet()) {
+                for (Cid cid : cids) {
+                    enqueue(conn, cid, WantType.Have);
+                }
+            }
+        });
+    }
+
+    public void peerAdded(@NonNull QuicConnection conn, @NonNull PeerId peerId) {
+        loop.execute(() -> onPeer(conn, peerId));
+    }
+
+    public void peerRemoved(@NonNull QuicConnection conn) {
+        loop.execute(() -> onPeerRemoved(conn));
+    }
+
+    public void blockReceived(@NonNull QuicConnection conn, @NonNull Cid cid, int size) {
+        long time = System.currentTimeMillis();
+        loop.execute(() -> onBlock(conn, cid, size, time));
+    }
+
+    public void haveReceived(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        if (!cids.isEmpty()) {
+            loop.execute(() -> onHave(conn, cids));
+        }
+    }
+
+    public void dontHaveReceived(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        if (!cids.isEmpty()) {
+            loop.execute(() -> onDontHave(conn, cids));
+        }
+    }
+
+    public void reset() {
+        loop.execute(() -> {
+            wanted.clear();
+            peers.clear();
+            pending.clear();
+            outbound.clear();
+        });
+    }
+
+    private void onWant(@NonNull Cid cid, @NonNull WantRegistry.Want want) {
+        if (want.isDone()) {
+            return;
+        }
+        Wanted previous = wanted.get(cid);
+        if (previous != null && !previous.want.isDone()) {
+            return;
+        }
+        Wanted state = new Wanted(want);
+        wanted.put(cid, state);
+        for (QuicConnection conn : peers.keySet()) {
+            state.asked.add(conn);
+            enqueue(conn, cid, WantType.Have);
+        }
+    }
+
+    private void onDone(@NonNull Cid cid, @NonNull WantRegistry.Want want) {
+        Wanted state = wanted.get(cid);
+        if (state != null && state.want == want) {
+            wanted.remove(cid);
+            clearPending(state);
+            clearHedge(state);
+            // the wants of the other peers are cancelled, the peer which delivered
+            // the block has removed it from its wantlist already
+            Set<QuicConnection> cancels = new HashSet<>(state.asked);
+            cancels.addAll(state.tried);
+            cancels.remove(state.delivered);
+            for (QuicConnection conn : cancels) {
+                if (peers.containsKey(conn)) {
+                    enqueue(conn, cid, WantType.Cancel);
+                }
+            }
+        }
+    }
+
+    private void onPeer(@NonNull QuicConnection conn, @NonNull PeerId peerId) {
+        if (peers.put(conn, peerId) != null) {
+            return;
+        }
+        for (Map.Entry<Cid, Wanted> entry : wanted.entrySet()) {
+            if (entry.getValue().asked.add(conn)) {
+                enqueue(conn, entry.getKey(), WantType.Have);
+            }
+        }
+    }
+
+    // a pending want-block of the closed connection is scheduled to another peer
+    private void onPeerRemoved(@NonNull QuicConnection conn) {
+        if (peers.remove(conn) == null) {
+            return;
+        }
+        outbound.remove(conn);
+        for (Map.Entry<Cid, Wanted> entry : wanted.entrySet()) {
+            Wanted state = entry.getValue();
+            state.asked.remove(conn);
+            state.haves.remove(conn);
+            state.tried.remove(conn);
+            if (state.hedge == conn) {
+                clearHedge(state);
+            }
+            if (state.pending == conn) {
+                clearPending(state);
+                retry(entry.getKey(), state);
+            }
+        }
+        pending.remove(conn);
+    }
+
+    private void onHave(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        for (Cid cid : cids) {
+            Wanted state = wanted.get(cid);
+            if (state == null) {
+                continue;
+            }
+            if (!state.tried.contains(conn) && !state.haves.contains(conn)) {
+                state.haves.add(conn);
+            }
+            if (state.pending != null || state.collecting) {
+                continue;
+            }
+            // HAVE responses of better ranked peers are awaited for a short window,
+            // unless no asked peer which has not answered yet is ranked better
+            if (selectPeer(state.asked, state.tried) == conn) {
+                schedule(cid, state);
+            } else {
+                state.collecting = true;
+                timer.schedule(() -> loop.execute(() -> onCollected(cid, state)),
+                        IPFS.BITSWAP_HAVE_WINDOW, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void onCollected(@NonNull Cid cid, @NonNull Wanted state) {
+        state.collecting = false;
+        if (wanted.get(cid) == state) {
+            schedule(cid, state);
+        }
+    }
+
+    private void onDontHave(@NonNull QuicConnection conn, @NonNull List<Cid> cids) {
+        for (Cid cid : cids) {
+            Wanted state = wanted.get(cid);
+            if (state == null) {
+                continue;
+            }
+            state.haves.remove(conn);
+            // a peer which does not have the block can not be a better candidate
+            state.asked.remove(conn);
+            if (state.hedge == conn) {
+                clearHedge(state);
+                PeerId peerId = peers.get(conn);
+                if (peerId != null) {
+                    stats.dontHave(peerId);
+                }
+            }
+            if (state.pending == conn) {
+                clearPending(state);
+                PeerId peerId = peers.get(conn);
+                if (peerId != null) {
+                    stats.dontHave(peerId);
+                }
+                retry(cid, state);
+            }
+        }
+    }
+
+    private void onTimeout(@NonNull Cid cid, long generation) {
+        Wanted state = wanted.get(cid);
+        if (state == null || state.generation != generation || state.pending == null) {
+            return;
+        }
+        LogUtils.debug(TAG, "Want timeout " + cid.String());
+        QuicConnection conn = clearPending(state);
+        PeerId peerId = peers.get(conn);
+        if (peerId != null) {
+            stats.timeout(peerId);
+        }
+        retry(cid, state);
+    }
+
+    // A want-block which is pending much longer than the peer usually needs is sent to
+    // the next best peer as well, the first block wins and the other request is cancelled
+    private void onHedge(@NonNull Cid cid, long generation) {
+        Wanted state = wanted.get(cid);
+        if (state == null || state.generation != generation || state.pending == null
+                || state.hedge != null || state.want.isDone()) {
+            return;
+        }
+        QuicConnection conn = selectPeer(state.haves, state.tried);
+        if (conn == null) {
+            return;
+        }
+        state.haves.remove(conn);
+        state.hedge = conn;
+        state.hedgeSent = System.currentTimeMillis();
+        request(conn, cid, state);
+    }
+
+    // runs before the done event of the want
+    private void onBlock(@NonNull QuicConnection conn, @NonNull Cid cid, int size, long time) {
+        Wanted state = wanted.get(cid);
+        if (state == null) {
+            return;
+        }
+        state.delivered = conn;
+        if (state.pending != conn && state.hedge != conn) {
+            return;
+        }
+        PeerId peerId = peers.get(conn);
+        if (peerId != null) {
+            long sent = state.pending == conn ? state.sent : state.hedgeSent;
+            stats.delivered(peerId, size, time - sent);
+        }
+    }
+
+    @Nullable
+    private QuicConnection clearPending(@NonNull Wanted state) {
+        QuicConnection conn = state.pending;
+        if (conn != null) {
+            state.pending = null;
+            release(conn);
+        }
+        return conn;
+    }
+
+    @Nullable
+    private QuicConnection clearHedge(@NonNull Wanted state) {
+        QuicConnection conn = state.hedge;
+        if (conn != null) {
+            state.hedge = null;
+            release(conn);
+        }
+        return conn;
+    }
+
+    private void release(@NonNull QuicConnection conn) {
+        Integer count = pending.get(conn);
+        if (count != null && count > 1) {
+            pending.put(conn, count - 1);
+        } else {
+            pending.remove(conn);
+        }
+    }
+
+    private int getRtt(@NonNull QuicConnection conn) {
+        try {
+            return conn.getStats().smoothedRtt();
+        } catch (Throwable ignore) {
+            // not supported by relayed connections
+            return 0;
+        }
+    }
+
+    // the peer with the lowest cost, the outstanding requests of a peer increase its
+    // cost, so wants are spread over several good peers
+    @Nullable
+    private QuicConnection selectPeer(@NonNull Collection<QuicConnection> candidates,
+                                      @NonNull Set<QuicConnection> excluded) {
+        QuicConnection best = null;
+        double lowest = Double.MAX_VALUE;
+        for (QuicConnection conn : candidates) {
+            if (excluded.contains(conn)) {
+                continue;
+            }
+            PeerId peerId = peers.get(conn);
+            if (peerId == null) {
+                continue;
+            }
+            Integer count = pending.get(conn);
+            double cost = stats.cost(peerId, getRtt(conn), count == null ? 0 : count);
+            if (cost < lowest) {
+                lowest = cost;
+                best = conn;
+            }
+        }
+        return best;
+    }
+
+    // sends the want-block to the best peer which has the block, when no request is pending
+    private void schedule(@NonNull Cid cid, @NonNull Wanted state) {
+        if (state.pending != null || state.want.isDone()) {
+            return;
+        }
+        QuicConnection conn = selectPeer(state.haves, state.tried);
+        if (conn == null) {
+            return;
+        }
+        state.haves.remove(conn);
+        state.pending = conn;
+        state.sent = System.currentTimeMillis();
+        request(conn, cid, state);
+        startTimers(cid, state);
+    }
+
+    // after a failed request the hedged request becomes the pending one
+    private void retry(@NonNull Cid cid, @NonNull Wanted state) {
+        if (state.hedge == null) {
+            schedule(cid, state);
+            return;
+        }
+        state.pending = state.hedge;
+        state.sent = state.hedgeSent;
+        state.hedge = null;
+        startTimers(cid, state);
+    }
+
+    private void request(@NonNull QuicConnection conn, @NonNull Cid cid,
+                         @NonNull Wanted state) {
+        state.tried.add(conn);
+        Integer count = pending.get(conn);
+        pending.put(conn, count == null ? 1 : count + 1);
+        PeerId peerId = peers.get(conn);
+        if (peerId != null) {
+            stats.requested(peerId);
+        }
+        enqueue(conn, cid, WantType.Block);
+    }
+
+    private void startTimers(@NonNull Cid cid, @NonNull Wanted state) {
+        long generation = ++state.generation;
+        timer.schedule(() -> loop.execute(() -> onTimeout(cid, generation)),
+                IPFS.WANTS_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        long delay = getHedgeDelay(state.pending);
+        if (delay < IPFS.WANTS_WAIT_TIMEOUT) {
+            timer.schedule(() -> loop.execute(() -> onHedge(cid, generation)),
+                    delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // a peer without a delivered block is not hedged, the timeout handles it
+    private long getHedgeDelay(@NonNull QuicConnection conn) {
+        PeerId peerId = peers.get(conn);
+        if (peerId == null) {
+            return IPFS.WANTS_WAIT_TIMEOUT;
+        }
+        double expected = stats.expected(peerId, getRtt(conn));
+        if (expected == 0) {
+            return IPFS.WANTS_WAIT_TIMEOUT;
+        }
+        return Math.max(Math.round(expected * IPFS.BITSWAP_HEDGE_FACTOR),
+                IPFS.BITSWAP_HEDGE_MIN_DELAY);
+    }
+
+    // Wants, haves and cancels for a peer are collected for BITSWAP_BATCH_WINDOW
+    // and sent together, instead of a stream for each single entry
+    private void enqueue(@NonNull QuicConnection conn, @NonNull Cid cid, @NonNull WantType type) {
+        Outbound queue = outbound.get(conn);
+        if (queue == null) {
+            queue = new Outbound();
+            outbound.put(conn, queue);
+        }
+        WantType previous = queue.entries.get(cid);
+        // a want-block overrides a want-have, a cancel overrides both
+        if (previous == null || type.ordinal() > previous.ordinal()) {
+            queue.entries.put(cid, type);
+        }
+        if (!queue.scheduled) {
+            queue.scheduled = true;
+            timer.schedule(() -> loop.execute(() -> flush(conn)),
+                    IPFS.BITSWAP_BATCH_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(@NonNull QuicConnection conn) {
+        Outbound queue = outbound.remove(conn);
+        if (queue == null || queue.entries.isEmpty()) {
+            return;
+        }
+        if (!peers.containsKey(conn)) {
+            return;
+        }
+
+        // entries are split into messages, so that a message and the blocks
+        // of its response do not exceed the message size limit
+        BitSwapMessage message = BitSwapMessage.New(false);
+        int size = 0;
+        int blocks = 0;
+        int priority = Integer.MAX_VALUE;
+        for (Map.Entry<Cid, WantType> entry : queue.entries.entrySet()) {
+            Cid cid = entry.getKey();
+            WantType type = entry.getValue();
+            if ((type == WantType.Block && blocks >= IPFS.BITSWAP_MAX_WANT_BLOCKS) ||
+                    size >= IPFS.MESSAGE_SIZE_MAX - MESSAGE_SIZE_RESERVE) {
+                send(conn, message);
+                message = BitSwapMessage.New(false);
+                size = 0;
+                blocks = 0;
+            }
+            switch (type) {
+                case Cancel:
+                    size += message.Cancel(cid);
+                    break;
+                case Block:
+                    blocks++;
+                    size += message.AddEntry(cid, priority,
+                            MessageOuterClass.Message.Wantlist.WantType.Block, true);
+                    break;
+                default:
+                    size += message.AddEntry(cid, priority,
+                            MessageOuterClass.Message.Wantlist.WantType.Have, false);
+                    break;
+            }
+            priority--;
+        }
+        send(conn, message);
+    }
+
+    private void send(@NonNull QuicConnection conn, @NonNull BitSwapMessage message) {
+        if (message.Empty()) {
+            return;
+        }
+        sender.execute(() -> {
+            try {
+                bitSwap.sendMessage(conn, message);
+            } catch (Throwable throwable) {
+                LogUtils.error(TAG, "send " + throwable.getClass().getName());
+            }
+        });
+    }
+
+    // ordered by precedence
+    private enum WantType {
+        Have, Block, Cancel
+    }
+
+    private static class Outbound {
+        final LinkedHashMap<Cid, WantType> entries = new LinkedHashMap<>();
+        boolean scheduled = false;
+    }
+
+    private static class Wanted {
+        @NonNull
+        final WantRegistry.Want want;
+        // peers which were asked with a want-have
+        final Set<QuicConnection> asked = new HashSet<>();
+        // peers which reported HAVE and were not asked with a want-block yet
+        final List<QuicConnection> haves = new ArrayList<>();
+        // peers which were asked with a want-block
+        final Set<QuicConnection> tried = new HashSet<>();
+        QuicConnection pending = null;
+        long sent = 0L;
+        // a second want-block for a slow pending request
+        QuicConnection hedge = null;
+        long hedgeSent = 0L;
+        // the peer which sent the block
+        QuicConnection delivered = null;
+        long generation = 0L;
+        // HAVE responses are collected before the want-block is sent
+        boolean collecting = false;
+
+        Wanted(@NonNull WantRegistry.Want want) {
+            this.want = want;
+        }
+    }
+}
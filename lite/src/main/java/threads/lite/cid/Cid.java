@@ -2,8 +2,6 @@ package threads.lite.cid;
 
 import androidx.annotation.NonNull;
 
-import com.google.common.io.BaseEncoding;
-
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -112,10 +110,6 @@ public class Cid implements Comparable<Cid> {
         }
     }
 
-    public String getKey() {
-        return BaseEncoding.base32().encode(bytes());
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -3,13 +3,13 @@ package threads.lite.dag;
 
 import androidx.annotation.NonNull;
 
-import java.util.Arrays;
 import java.util.Objects;
 
 import threads.lite.IPFS;
 import threads.lite.cid.Builder;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
 import threads.lite.format.Node;
-import threads.lite.format.Reader;
 import threads.lite.utils.Splitter;
 import threads.lite.utils.WriterStream;
 
@@ -17,6 +17,8 @@ public class Adder {
     @NonNull
     private final DagService dagService;
     public boolean RawLeaves;
+    public boolean Balanced;
+    public String Chunker = IPFS.CHUNKER;
     public Builder builder;
 
     private Adder(@NonNull DagService dagService) {
@@ -29,28 +31,35 @@ public class Adder {
 
 
     public Node createEmptyDir() {
-        Directory dir = Directory.createDirectory();
+        Directory dir = Directory.createDirectory(dagService);
         dir.setCidBuilder(builder);
         Node fnd = dir.getNode();
         dagService.add(fnd);
         return fnd;
     }
 
-    public Node addLinkToDir(@NonNull Node dirNode, @NonNull String name, @NonNull Node link) {
-        Directory dir = Directory.createDirectoryFromNode(dirNode);
+    public Node addLinkToDir(@NonNull Closeable closeable, @NonNull Node dirNode,
+                             @NonNull String name, @NonNull Node link) throws ClosedException {
+        Directory dir = Directory.createDirectoryFromNode(dagService, dirNode);
         Objects.requireNonNull(dir);
         dir.setCidBuilder(builder);
-        dir.addChild(name, link);
+        dir.addChild(closeable, name, link);
         Node fnd = dir.getNode();
         dagService.add(fnd);
         return fnd;
     }
 
-    public Node removeChild(@NonNull Node dirNode, @NonNull String name) {
-        Directory dir = Directory.createDirectoryFromNode(dirNode);
+    @NonNull
+    public MutableDirectory openDirectory(@NonNull Node dirNode) {
+        return new MutableDirectory(dagService, builder, dirNode, false);
+    }
+
+    public Node removeChild(@NonNull Closeable closeable, @NonNull Node dirNode,
+                            @NonNull String name) throws ClosedException {
+        Directory dir = Directory.createDirectoryFromNode(dagService, dirNode);
         Objects.requireNonNull(dir);
         dir.setCidBuilder(builder);
-        dir.removeChild(name);
+        dir.removeChild(closeable, name);
         Node fnd = dir.getNode();
         dagService.add(fnd);
         return fnd;
@@ -60,38 +69,18 @@ public class Adder {
     @NonNull
     public Node addReader(@NonNull final WriterStream reader) {
 
-        Splitter splitter = new Splitter() {
-
-            @Override
-            public Reader reader() {
-                return reader;
-            }
-
-            @Override
-            public byte[] nextBytes() {
-
-                int size = IPFS.CHUNK_SIZE;
-                byte[] buf = new byte[size];
-                int read = reader.read(buf);
-                if (read < 0) {
-                    return null;
-                } else if (read < size) {
-                    return Arrays.copyOfRange(buf, 0, read);
-                } else {
-                    return buf;
-                }
-            }
-
-            @Override
-            public boolean done() {
-                return reader.done();
-            }
-        };
+        Splitter splitter = Splitter.createSplitter(reader, Chunker);
 
         DagBuilderHelper db = new DagBuilderHelper(
-                dagService, builder, splitter, RawLeaves);
-
-        return Trickle.Layout(db);
+                dagService, builder, splitter, RawLeaves, IPFS.IMPORT_BUDGET);
+        try {
+            if (Balanced) {
+                return threads.lite.dag.Balanced.Layout(db);
+            }
+            return Trickle.Layout(db);
+        } finally {
+            db.close();
+        }
     }
 
 }
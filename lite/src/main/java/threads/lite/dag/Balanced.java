@@ -0,0 +1,106 @@
+package threads.lite.dag;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import threads.lite.IPFS;
+import threads.lite.format.Node;
+
+
+// Balanced layout as the go-ipfs balanced builder, all leaves are at the same depth and
+// every internal node has up to LINKS_PER_BLOCK children, so a seek fetches only
+// log_fanout(n) internal nodes
+public class Balanced {
+
+    public static Node Layout(@NonNull DagBuilderHelper db) {
+        Leaves leaves = new Leaves(db);
+
+        Node root;
+        if (leaves.done()) {
+            // no data, just an empty file node
+            root = db.createFSNodeOverDag(unixfs.pb.Unixfs.Data.DataType.File).commit();
+            db.add(root);
+            return root;
+        }
+
+        // the first leaf is encoded as file, like in go-ipfs it is the root when it is
+        // the only leaf, otherwise it becomes the first child of the next root
+        Pair<Node, Integer> leaf = leaves.take();
+        root = db.createFileLeaf(leaf);
+        long fileSize = leaf.second;
+        if (leaves.done()) {
+            db.add(root);
+            return root;
+        }
+
+        // each time a dag of a depth is filled, it becomes the first child of a dag
+        // with depth + 1
+        for (int depth = 1; !leaves.done(); depth++) {
+            DagBuilderHelper.FSNodeOverDag newRoot =
+                    db.createFSNodeOverDag(unixfs.pb.Unixfs.Data.DataType.File);
+            newRoot.addChild(root, fileSize, db);
+            Pair<Node, Long> result = fillNodeRec(db, leaves, newRoot, depth);
+            root = result.first;
+            fileSize = result.second;
+        }
+        db.add(root);
+        return root;
+    }
+
+    private static Pair<Node, Long> fillNodeRec(@NonNull DagBuilderHelper db,
+                                                @NonNull Leaves leaves,
+                                                @Nullable DagBuilderHelper.FSNodeOverDag node,
+                                                int depth) {
+        if (node == null) {
+            node = db.createFSNodeOverDag(unixfs.pb.Unixfs.Data.DataType.File);
+        }
+        while (node.numChildren() < IPFS.LINKS_PER_BLOCK && !leaves.done()) {
+            if (depth == 1) {
+                Pair<Node, Integer> leaf = leaves.take();
+                node.addChild(leaf.first, leaf.second, db);
+            } else {
+                Pair<Node, Long> result = fillNodeRec(db, leaves, null, depth - 1);
+                node.addChild(result.first, result.second, db);
+            }
+        }
+        Node filledNode = node.commit();
+        return Pair.create(filledNode, node.fileSize());
+    }
+
+    // One leaf look ahead, done is only true when no further data is available,
+    // so no empty internal nodes are created at the end of a layer
+    private static class Leaves {
+        private final DagBuilderHelper db;
+        private Pair<Node, Integer> next;
+
+        Leaves(@NonNull DagBuilderHelper db) {
+            this.db = db;
+            this.next = read();
+        }
+
+        @Nullable
+        private Pair<Node, Integer> read() {
+            while (!db.Done()) {
+                Pair<Node, Integer> leaf =
+                        db.createLeafDataNode(unixfs.pb.Unixfs.Data.DataType.Raw);
+                if (leaf != null) {
+                    return leaf;
+                }
+            }
+            return null;
+        }
+
+        boolean done() {
+            return next == null;
+        }
+
+        @NonNull
+        Pair<Node, Integer> take() {
+            Pair<Node, Integer> leaf = next;
+            next = read();
+            return leaf;
+        }
+    }
+}
@@ -18,16 +18,32 @@ public class DagBuilderHelper {
     private final Builder builder;
     private final Splitter splitter;
     private final boolean rawLeaves;
+    @Nullable
+    private final LeafPipeline pipeline;
 
 
     public DagBuilderHelper(@NonNull DagService dagService,
                             @NonNull Builder builder,
                             @NonNull Splitter splitter,
                             boolean rawLeaves) {
+        this(dagService, builder, splitter, rawLeaves, 0);
+    }
+
+    // with a budget greater 0, leaves are read, encoded and hashed by a pipeline
+    public DagBuilderHelper(@NonNull DagService dagService,
+                            @NonNull Builder builder,
+                            @NonNull Splitter splitter,
+                            boolean rawLeaves, long budget) {
         this.dagService = dagService;
         this.builder = builder;
         this.splitter = splitter;
         this.rawLeaves = rawLeaves;
+        if (budget > 0) {
+            this.pipeline = LeafPipeline.start(splitter, (data) ->
+                    createLeafNode(data, unixfs.pb.Unixfs.Data.DataType.Raw), budget);
+        } else {
+            this.pipeline = null;
+        }
     }
 
 
@@ -38,6 +54,10 @@ public class DagBuilderHelper {
     @Nullable
     public Pair<Node, Integer> createLeafDataNode(@NonNull unixfs.pb.Unixfs.Data.DataType dataType) {
 
+        if (pipeline != null && dataType == unixfs.pb.Unixfs.Data.DataType.Raw) {
+            return pipeline.next();
+        }
+
         byte[] fileData = nextBytes();
         if (fileData != null) {
             int dataSize = fileData.length;
@@ -49,6 +69,16 @@ public class DagBuilderHelper {
         return null;
     }
 
+    // a leaf which is the root of a file, the data is encoded as file instead of raw
+    @NonNull
+    public Node createFileLeaf(@NonNull Pair<Node, Integer> leaf) {
+        if (rawLeaves) {
+            return leaf.first;
+        }
+        byte[] data = FSNode.readUnixFSNodeData(leaf.first);
+        return createLeafNode(data, unixfs.pb.Unixfs.Data.DataType.File);
+    }
+
     private Node createLeafNode(byte[] data, @NonNull unixfs.pb.Unixfs.Data.DataType fsNodeType) {
 
         if (data.length > IPFS.BLOCK_SIZE_LIMIT) {
@@ -89,9 +119,18 @@ public class DagBuilderHelper {
     }
 
     public boolean Done() {
+        if (pipeline != null) {
+            return pipeline.done();
+        }
         return splitter.done();
     }
 
+    public void close() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
     public static class FSNodeOverDag {
         private final ProtoNode dag;
         private final FSNode file;
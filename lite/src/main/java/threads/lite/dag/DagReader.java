@@ -5,16 +5,11 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import com.google.protobuf.ByteString;
+
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import threads.lite.IPFS;
-import threads.lite.cid.Cid;
 import threads.lite.core.Closeable;
 import threads.lite.core.ClosedException;
 import threads.lite.format.NavigableIPLDNode;
@@ -23,36 +18,49 @@ import threads.lite.format.Node;
 import threads.lite.format.NodeGetter;
 import threads.lite.format.ProtoNode;
 import threads.lite.format.RawNode;
-import threads.lite.format.Seeker;
 import threads.lite.format.Stage;
 import threads.lite.format.Visitor;
 import threads.lite.format.Walker;
 
+// Positional reader of a file dag. The path to the current leaf and the leaf data are
+// kept, so a seek within the leaf or to the current position costs nothing, and any
+// other seek only climbs the path up to the first node which contains the offset,
+// instead of descending from the root again.
 public class DagReader {
 
-    public final AtomicInteger atomicLeft = new AtomicInteger(0);
     private final long size;
     private final Visitor visitor;
     private final Walker dagWalker;
-    private final NodeGetter nodeGetter;
-    private final Set<Cid> cids = new HashSet<>();
+    private final FetchPipeline pipeline;
+    // the data of the current leaf, it starts at leafStart of the file
+    @Nullable
+    private ByteString leaf = null;
+    private long leafStart = 0L;
+    private int leafOffset = 0;
+    // the offset of the next returned data
+    private long position = 0L;
 
-    public DagReader(@NonNull Walker dagWalker, @NonNull NodeGetter nodeGetter, long size) {
+    public DagReader(@NonNull Walker dagWalker, @NonNull FetchPipeline pipeline, long size) {
         this.dagWalker = dagWalker;
-        this.nodeGetter = nodeGetter;
+        this.pipeline = pipeline;
         this.size = size;
         this.visitor = new Visitor(dagWalker.getRoot());
 
     }
 
     public static DagReader create(@NonNull Node node, @NonNull NodeGetter serv) {
+        return create(node, serv, IPFS.FETCH_WINDOW, IPFS.FETCH_BUDGET);
+    }
+
+    public static DagReader create(@NonNull Node node, @NonNull NodeGetter serv,
+                                   int window, long budget) {
         long size = 0;
 
 
         if (node instanceof RawNode) {
             size = node.getData().length;
         } else if (node instanceof ProtoNode) {
-            FSNode fsNode = FSNode.createFSNodeFromBytes(node.getData());
+            FSNode fsNode = FSNode.extractFSNode(node);
 
             switch (fsNode.Type()) {
                 case Raw:
@@ -65,36 +73,98 @@ public class DagReader {
         }
 
         Walker dagWalker = Walker.NewWalker(NavigableIPLDNode.NewNavigableIPLDNode(node, serv));
-        return new DagReader(dagWalker, serv, size);
+        return new DagReader(dagWalker, new FetchPipeline(serv, window, budget), size);
+
+    }
 
+    private static long getSize(@NonNull Node node) {
+        if (node instanceof RawNode) {
+            return node.getData().length;
+        }
+        return FSNode.extractFSNode(node).getFileSize();
     }
 
     public long getSize() {
         return size;
     }
 
-    public void Seek(@NonNull Closeable closeable, long offset) throws ClosedException {
-        Pair<Stack<Stage>, Long> result = dagWalker.seek(closeable, offset);
-        this.atomicLeft.set(result.second.intValue());
-        this.visitor.reset(result.first);
+    public long getPosition() {
+        return position;
     }
 
-    @Nullable
-    public byte[] loadNextData(@NonNull Closeable closeable) throws ClosedException {
-
-
-        int left = atomicLeft.getAndSet(0);
-        if (left > 0) {
-            NavigableNode navigableNode = visitor.peekStage().getNode();
+    public void Seek(@NonNull Closeable closeable, long offset) throws ClosedException {
+        if (offset < 0) {
+            throw new RuntimeException("invalid offset");
+        }
+        if (offset == position) {
+            return;
+        }
+        position = offset;
+        if (leaf != null && offset >= leafStart && offset < leafStart + leaf.size()) {
+            leafOffset = (int) (offset - leafStart);
+            return;
+        }
+        leaf = null;
+        if (offset >= size) {
+            return;
+        }
 
-            Node node = NavigableIPLDNode.extractIPLDNode(navigableNode);
+        Pair<Stack<Stage>, Long> result;
+        Stack<Stage> stack = visitor.copy();
+        if (stack.isEmpty()) {
+            // the walk is at the end of the dag
+            result = dagWalker.seek(closeable, offset);
+        } else {
+            // the start offsets of the nodes on the current path
+            long[] starts = new long[stack.size()];
+            for (int i = 0; i < stack.size() - 1; i++) {
+                starts[i + 1] = starts[i];
+                Node node = NavigableIPLDNode.extractIPLDNode(stack.get(i).getNode());
+                FSNode fsNode = FSNode.extractFSNode(node);
+                for (int child = 0; child < stack.get(i).index(); child++) {
+                    starts[i + 1] += fsNode.getBlockSize(child);
+                }
+            }
+            // climbs up to the first node which contains the offset, the root contains all
+            while (stack.size() > 1) {
+                int top = stack.size() - 1;
+                Node node = NavigableIPLDNode.extractIPLDNode(stack.peek().getNode());
+                if (offset >= starts[top] && offset < starts[top] + getSize(node)) {
+                    break;
+                }
+                stack.pop();
+            }
+            long start = starts[stack.size() - 1];
+            // the walker descends again from the first child of the node
+            stack.peek().setIndex(0);
+            result = dagWalker.seek(closeable, stack, offset - start);
+        }
+        visitor.reset(result.first);
+
+        // the walker continues after the leaf on top, its data is taken from here
+        Node node = NavigableIPLDNode.extractIPLDNode(visitor.peekStage().getNode());
+        if (node.getLinks().size() == 0) {
+            leaf = FSNode.readUnixFSNodeByteString(node);
+            leafOffset = result.second.intValue();
+            leafStart = offset - leafOffset;
+        } else if (result.second > 0) {
+            throw new RuntimeException("ErrSeekNotSupported");
+        }
+    }
 
-            if (node.getLinks().size() == 0) {
+    // the returned data is a slice of the block, it is not copied
+    @Nullable
+    public ByteString loadNextData(@NonNull Closeable closeable) throws ClosedException {
 
-                byte[] data = FSNode.readUnixFSNodeData(node);
+        if (position >= size) {
+            return null;
+        }
 
-                return Arrays.copyOfRange(data, left, data.length);
-            }
+        if (leaf != null && leafOffset < leaf.size()) {
+            ByteString data = leaf.substring(leafOffset);
+            leafOffset = leaf.size();
+            position += data.size();
+            return data;
         }
 
         while (true) {
@@ -108,37 +178,16 @@ public class DagReader {
                 continue;
             }
 
-            return FSNode.readUnixFSNodeData(node);
+            leaf = FSNode.readUnixFSNodeByteString(node);
+            leafStart = position;
+            leafOffset = leaf.size();
+            position += leaf.size();
+            return leaf;
         }
 
     }
 
     public void preloadData(@NonNull Closeable closeable) throws ClosedException {
-
-        List<Cid> preloads = new ArrayList<>();
-        Seeker seeker = new Seeker();
-        Stack<Stage> stack = visitor.copy();
-        int runs = 0;
-
-        int min = (cids.size() / IPFS.PRELOAD) + IPFS.PRELOAD_DIST;
-
-        int maxRuns = Math.min(min, IPFS.PRELOAD);
-
-        while (runs < maxRuns) {
-            Cid cid = seeker.next(closeable, stack);
-            if (cid == null) {
-                break;
-            }
-            if (!cids.contains(cid)) {
-                preloads.add(cid);
-            }
-            runs++;
-        }
-
-        if (preloads.size() >= IPFS.PRELOAD_DIST) {
-            cids.addAll(preloads);
-            nodeGetter.preload(closeable, preloads);
-        }
-
+        pipeline.fill(closeable, visitor.copy());
     }
 }
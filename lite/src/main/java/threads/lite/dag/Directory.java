@@ -3,7 +3,18 @@ package threads.lite.dag;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import threads.lite.IPFS;
 import threads.lite.cid.Builder;
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.format.Link;
 import threads.lite.format.Node;
 import threads.lite.format.ProtoNode;
 
@@ -17,29 +28,48 @@ public interface Directory {
         return Node.createNodeWithData(data);
     }
 
-    static Directory createDirectory() {
-        return new BasicDirectory(emptyDirNode());
+    static Directory createDirectory(@NonNull DagService dagService) {
+        ProtoNode protoNode = emptyDirNode();
+        return new DynamicDirectory(dagService, protoNode.getCidBuilder(),
+                new BasicDirectory(protoNode));
     }
 
     @Nullable
-    static Directory createDirectoryFromNode(@NonNull Node node) {
+    static Directory createDirectoryFromNode(@NonNull DagService dagService, @NonNull Node node) {
         ProtoNode protoNode = (ProtoNode) node;
-        FSNode fsNode = FSNode.createFSNodeFromBytes(protoNode.getData());
+        FSNode fsNode = FSNode.createFSNodeFromBytes(protoNode.getDataString());
 
-        if (fsNode.Type() == unixfs.pb.Unixfs.Data.DataType.Directory ||
-                fsNode.Type() == unixfs.pb.Unixfs.Data.DataType.HAMTShard) {
-            return new BasicDirectory((ProtoNode) protoNode.copy());
+        Builder builder = protoNode.getCidBuilder();
+        if (fsNode.Type() == unixfs.pb.Unixfs.Data.DataType.Directory) {
+            return new DynamicDirectory(dagService, builder,
+                    new BasicDirectory((ProtoNode) protoNode.copy()));
+        }
+        if (fsNode.Type() == unixfs.pb.Unixfs.Data.DataType.HAMTShard) {
+            return new DynamicDirectory(dagService, builder,
+                    new HamtDirectory(dagService, builder, protoNode, null));
         }
         return null;
     }
 
+    // estimated size of a link as in go-ipfs, the name and the cid
+    static long estimatedSize(@NonNull String name, @NonNull Cid cid) {
+        return name.getBytes(StandardCharsets.UTF_8).length + cid.bytes().length;
+    }
+
     void setCidBuilder(@NonNull Builder cidBuilder);
 
     Node getNode();
 
-    void addChild(@NonNull String name, @NonNull Node link);
+    void addChild(@NonNull Closeable closeable, @NonNull String name, @NonNull Node link)
+            throws ClosedException;
+
+    void removeChild(@NonNull Closeable closeable, @NonNull String name) throws ClosedException;
 
-    void removeChild(@NonNull String name);
+    @NonNull
+    List<Link> getLinks(@NonNull Closeable closeable) throws ClosedException;
+
+    @Nullable
+    Link getLink(@NonNull Closeable closeable, @NonNull String name) throws ClosedException;
 
     class BasicDirectory implements Directory {
         private final ProtoNode protoNode;
@@ -53,21 +83,233 @@ public interface Directory {
             protoNode.setCidBuilder(cidBuilder);
         }
 
+        // estimated size of the node as in go-ipfs, names and cids of the links
+        private long estimatedSize() {
+            long size = 0L;
+            for (Link link : protoNode.getLinks()) {
+                size += Directory.estimatedSize(link.getName(), link.getCid());
+            }
+            return size;
+        }
+
         @Override
         public Node getNode() {
             return protoNode;
         }
 
         @Override
-        public void addChild(@NonNull String name, @NonNull Node link) {
+        public void addChild(@NonNull Closeable closeable, @NonNull String name,
+                             @NonNull Node link) {
             protoNode.removeNodeLink(name);
             protoNode.addNodeLink(name, link);
         }
 
         @Override
-        public void removeChild(@NonNull String name) {
+        public void removeChild(@NonNull Closeable closeable, @NonNull String name) {
             protoNode.removeNodeLink(name);
         }
+
+        @NonNull
+        @Override
+        public List<Link> getLinks(@NonNull Closeable closeable) {
+            return protoNode.getLinks();
+        }
+
+        @Nullable
+        @Override
+        public Link getLink(@NonNull Closeable closeable, @NonNull String name) {
+            for (Link link : protoNode.getLinks()) {
+                if (Objects.equals(link.getName(), name)) {
+                    return link;
+                }
+            }
+            return null;
+        }
+    }
+
+    class HamtDirectory implements Directory {
+        private final DagService dagService;
+        // the encoded shard, when the shard is not loaded
+        @Nullable
+        private final ProtoNode protoNode;
+        private Builder builder;
+        @Nullable
+        private HamtShard shard;
+
+        HamtDirectory(@NonNull DagService dagService, @NonNull Builder builder,
+                      @Nullable ProtoNode protoNode, @Nullable HamtShard shard) {
+            this.dagService = dagService;
+            this.builder = builder;
+            this.protoNode = protoNode;
+            this.shard = shard;
+        }
+
+        // the shards are only loaded for modifications
+        @NonNull
+        private HamtShard getShard() {
+            if (shard == null) {
+                Objects.requireNonNull(protoNode);
+                shard = HamtShard.loadHamtShard(dagService, builder, protoNode);
+            }
+            return shard;
+        }
+
+        // false when the estimated size of the entries exceeds the limit, only the
+        // entries up to the limit are visited
+        private boolean sizeBelow(@NonNull Closeable closeable, long limit)
+                throws ClosedException {
+            AtomicLong size = new AtomicLong(0L);
+            return getShard().forEachLink(closeable, (link) ->
+                    size.addAndGet(Directory.estimatedSize(link.getName(), link.getCid()))
+                            <= limit);
+        }
+
+        @Override
+        public void setCidBuilder(@NonNull Builder cidBuilder) {
+            builder = cidBuilder;
+        }
+
+        @Override
+        public Node getNode() {
+            if (shard == null) {
+                Objects.requireNonNull(protoNode);
+                return protoNode;
+            }
+            return shard.getNode();
+        }
+
+        @Override
+        public void addChild(@NonNull Closeable closeable, @NonNull String name,
+                             @NonNull Node link) throws ClosedException {
+            getShard().setLink(closeable, Link.createLink(link, name));
+        }
+
+        @Override
+        public void removeChild(@NonNull Closeable closeable, @NonNull String name)
+                throws ClosedException {
+            getShard().removeLink(closeable, name);
+        }
+
+        @NonNull
+        @Override
+        public List<Link> getLinks(@NonNull Closeable closeable) throws ClosedException {
+            List<Link> links = new ArrayList<>();
+            HamtShard.getLinks(closeable, dagService, (ProtoNode) getNode(), links);
+            return links;
+        }
+
+        @Nullable
+        @Override
+        public Link getLink(@NonNull Closeable closeable, @NonNull String name)
+                throws ClosedException {
+            if (shard == null) {
+                Objects.requireNonNull(protoNode);
+                return HamtShard.find(closeable, dagService, protoNode, name);
+            }
+            return shard.getLink(closeable, name);
+        }
     }
 
+    // Switches between a basic directory and a hamt shard as go-ipfs. A basic directory
+    // which exceeds the sharding size by an addition becomes a hamt shard, a hamt shard
+    // which falls below the sharding size by a removal becomes a basic directory again.
+    // The size of a shard is only computed when the removals since it was loaded or
+    // created exceed the additions.
+    class DynamicDirectory implements Directory {
+        private final DagService dagService;
+        private Builder builder;
+        private Directory directory;
+        // estimated size change of a hamt shard since it was loaded or created
+        private long sizeChange = 0L;
+
+        DynamicDirectory(@NonNull DagService dagService, @NonNull Builder builder,
+                         @NonNull Directory directory) {
+            this.dagService = dagService;
+            this.builder = builder;
+            this.directory = directory;
+        }
+
+        @Override
+        public void setCidBuilder(@NonNull Builder cidBuilder) {
+            builder = cidBuilder;
+            directory.setCidBuilder(cidBuilder);
+        }
+
+        @Override
+        public Node getNode() {
+            return directory.getNode();
+        }
+
+        @Override
+        public void addChild(@NonNull Closeable closeable, @NonNull String name,
+                             @NonNull Node link) throws ClosedException {
+            if (directory instanceof BasicDirectory) {
+                BasicDirectory basic = (BasicDirectory) directory;
+                basic.addChild(closeable, name, link);
+                if (basic.estimatedSize() > IPFS.HAMT_SHARDING_SIZE) {
+                    switchToHamt(closeable, basic);
+                }
+                return;
+            }
+            Link previous = directory.getLink(closeable, name);
+            if (previous != null) {
+                sizeChange -= estimatedSize(name, previous.getCid());
+            }
+            sizeChange += estimatedSize(name, link.getCid());
+            directory.addChild(closeable, name, link);
+        }
+
+        @Override
+        public void removeChild(@NonNull Closeable closeable, @NonNull String name)
+                throws ClosedException {
+            if (directory instanceof BasicDirectory) {
+                directory.removeChild(closeable, name);
+                return;
+            }
+            Link previous = directory.getLink(closeable, name);
+            if (previous == null) {
+                return;
+            }
+            directory.removeChild(closeable, name);
+            sizeChange -= estimatedSize(name, previous.getCid());
+            if (sizeChange < 0 && ((HamtDirectory) directory).sizeBelow(
+                    closeable, IPFS.HAMT_SHARDING_SIZE)) {
+                switchToBasic(closeable);
+            }
+        }
+
+        private void switchToHamt(@NonNull Closeable closeable, @NonNull BasicDirectory basic)
+                throws ClosedException {
+            HamtShard shard = HamtShard.createHamtShard(dagService, builder);
+            for (Link link : basic.getLinks(closeable)) {
+                shard.setLink(closeable, link);
+            }
+            directory = new HamtDirectory(dagService, builder, null, shard);
+            sizeChange = 0L;
+        }
+
+        private void switchToBasic(@NonNull Closeable closeable) throws ClosedException {
+            ProtoNode protoNode = emptyDirNode();
+            protoNode.setCidBuilder(builder);
+            ((HamtDirectory) directory).getShard().forEachLink(closeable, (link) -> {
+                protoNode.addRawLink(link);
+                return true;
+            });
+            directory = new BasicDirectory(protoNode);
+            sizeChange = 0L;
+        }
+
+        @NonNull
+        @Override
+        public List<Link> getLinks(@NonNull Closeable closeable) throws ClosedException {
+            return directory.getLinks(closeable);
+        }
+
+        @Nullable
+        @Override
+        public Link getLink(@NonNull Closeable closeable, @NonNull String name)
+                throws ClosedException {
+            return directory.getLink(closeable, name);
+        }
+    }
 }
@@ -3,6 +3,8 @@ package threads.lite.dag;
 import androidx.annotation.NonNull;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
 
 import threads.lite.format.Node;
 import threads.lite.format.ProtoNode;
@@ -17,9 +19,12 @@ public class FSNode {
                 setFilesize(0L).build();
     }
 
-    private FSNode(byte[] content) {
+    private FSNode(@NonNull ByteString content) {
         try {
-            data = unixfs.pb.Unixfs.Data.parseFrom(content);
+            // the data of the node is a slice of the content, it is not copied
+            CodedInputStream input = content.newCodedInput();
+            input.enableAliasing(true);
+            data = unixfs.pb.Unixfs.Data.parseFrom(input);
         } catch (Throwable throwable) {
             throw new RuntimeException();
         }
@@ -31,23 +36,33 @@ public class FSNode {
     }
 
     public static FSNode createFSNodeFromBytes(byte[] data) {
+        return new FSNode(UnsafeByteOperations.unsafeWrap(data));
+    }
+
+    public static FSNode createFSNodeFromBytes(@NonNull ByteString data) {
         return new FSNode(data);
     }
 
     public static byte[] readUnixFSNodeData(@NonNull Node node) {
+        return readUnixFSNodeByteString(node).toByteArray();
+    }
+
+    // the data of a leaf without copying it from the encoded block
+    @NonNull
+    public static ByteString readUnixFSNodeByteString(@NonNull Node node) {
 
         if (node instanceof ProtoNode) {
-            FSNode fsNode = createFSNodeFromBytes(node.getData());
+            FSNode fsNode = createFSNodeFromBytes(((ProtoNode) node).getDataString());
             switch (fsNode.Type()) {
                 case File:
                 case Raw:
-                    return fsNode.getData();
+                    return fsNode.getByteString();
                 default:
                     throw new RuntimeException("found %s node in unexpected place " +
                             fsNode.Type().name());
             }
         } else if (node instanceof RawNode) {
-            return node.getRawData();
+            return UnsafeByteOperations.unsafeWrap(node.getRawData());
         } else {
             throw new RuntimeException("not supported type");
         }
@@ -56,7 +71,7 @@ public class FSNode {
 
     public static FSNode extractFSNode(@NonNull Node node) {
         if (node instanceof ProtoNode) {
-            return createFSNodeFromBytes(node.getData());
+            return createFSNodeFromBytes(((ProtoNode) node).getDataString());
         }
         throw new RuntimeException("expected a ProtoNode as internal node");
 
@@ -71,9 +86,14 @@ public class FSNode {
         return data.getData().toByteArray();
     }
 
+    @NonNull
+    public ByteString getByteString() {
+        return data.getData();
+    }
+
     public void setData(byte[] bytes) {
-        updateFileSize(bytes.length - getData().length);
-        data = data.toBuilder().setData(ByteString.copyFrom(bytes)).build();
+        updateFileSize(bytes.length - data.getData().size());
+        data = data.toBuilder().setData(UnsafeByteOperations.unsafeWrap(bytes)).build();
     }
 
     public unixfs.pb.Unixfs.Data.DataType Type() {
@@ -105,6 +125,10 @@ public class FSNode {
     public long fanout() {
         return data.getFanout();
     }
+
+    public long hashType() {
+        return data.getHashType();
+    }
 }
 
 
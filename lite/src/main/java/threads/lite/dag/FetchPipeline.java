@@ -0,0 +1,98 @@
+package threads.lite.dag;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import threads.lite.LogUtils;
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.format.NodeGetter;
+import threads.lite.format.Seeker;
+import threads.lite.format.Stage;
+
+// Fetches the upcoming leaves of a dag reader in parallel, bounded by a window of
+// outstanding requests and a budget of outstanding bytes. The fetched blocks are stored
+// by the block service, so the reader still walks the dag in order and finds the
+// leaves locally instead of waiting a round trip for each of them.
+public class FetchPipeline {
+
+    private static final String TAG = FetchPipeline.class.getSimpleName();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+    @NonNull
+    private final NodeGetter nodeGetter;
+    private final int window;
+    private final long budget;
+    @NonNull
+    private final HashMap<Cid, Long> pending = new HashMap<>();
+    @NonNull
+    private final Set<Cid> requested = new HashSet<>();
+    private long bytes = 0L;
+
+    public FetchPipeline(@NonNull NodeGetter nodeGetter, int window, long budget) {
+        this.nodeGetter = nodeGetter;
+        this.window = window;
+        this.budget = budget;
+    }
+
+    // the stack is consumed, it has to be a copy of the reader position
+    public void fill(@NonNull Closeable closeable, @NonNull Stack<Stage> stack) throws ClosedException {
+        if (window <= 0) {
+            return;
+        }
+        Seeker seeker = new Seeker();
+        int scanned = 0;
+        // leaves which are already fetched are skipped, the scan is limited
+        // to not walk the whole dag when the reader is far behind
+        while (scanned < 2 * window) {
+            synchronized (this) {
+                if (pending.size() >= window || bytes >= budget) {
+                    return;
+                }
+            }
+            Cid cid = seeker.next(closeable, stack);
+            if (cid == null) {
+                return;
+            }
+            scanned++;
+            long size = seeker.getSize();
+            synchronized (this) {
+                if (!requested.add(cid)) {
+                    continue;
+                }
+                pending.put(cid, size);
+                bytes += size;
+            }
+            EXECUTOR.execute(() -> fetch(closeable, cid));
+        }
+    }
+
+    private void fetch(@NonNull Closeable closeable, @NonNull Cid cid) {
+        try {
+            if (!closeable.isClosed()) {
+                nodeGetter.getNode(closeable, cid, false);
+            }
+        } catch (ClosedException ignore) {
+            // reader is closed
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+            synchronized (this) {
+                requested.remove(cid);
+            }
+        } finally {
+            synchronized (this) {
+                Long size = pending.remove(cid);
+                if (size != null) {
+                    bytes -= size;
+                }
+            }
+        }
+    }
+}
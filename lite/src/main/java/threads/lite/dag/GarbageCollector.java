@@ -0,0 +1,251 @@
+package threads.lite.dag;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import threads.lite.LogUtils;
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.data.PINS;
+import threads.lite.data.Storage;
+import threads.lite.format.Block;
+import threads.lite.format.BlockStore;
+import threads.lite.format.Decoder;
+import threads.lite.format.Link;
+
+// Mark and sweep of the block store. The blocks which are reachable from the pins are
+// marked in a bloom filter, a false positive only keeps an unreachable block, it never
+// removes a reachable one. The visited inner nodes are kept exactly, so a shared subtree
+// is walked once, the leaves which are the bulk of the blocks are not kept at all.
+// Blocks stored since the previous collection started are not swept, they may belong to
+// an import which is not pinned yet. Blocks are deleted in batches.
+// The mark is kept until the pins change or a block is stored, so the removal of several
+// dags in a row marks the pinned blocks only once.
+public class GarbageCollector {
+
+    private static final String TAG = GarbageCollector.class.getSimpleName();
+    private static final int DELETE_BATCH = 512;
+    private static final int STORED_EXPECTED = 1 << 20; // blocks stored between collections
+    private static final double FALSE_POSITIVES = 0.01;
+
+    @NonNull
+    private final BlockStore blockStore;
+    // the undecorated store, the walk of the dags does not evict the block cache
+    @NonNull
+    private final BlockStore reader;
+    @NonNull
+    private final Storage storage;
+    @NonNull
+    private final PINS pins;
+    @NonNull
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    @NonNull
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    @NonNull
+    private volatile BloomFilter<byte[]> stored = createFilter(STORED_EXPECTED);
+    @NonNull
+    private volatile BloomFilter<byte[]> previous = createFilter(STORED_EXPECTED);
+    // the mark of the last collection or removal, guarded by the lock of the collector
+    @Nullable
+    private BloomFilter<byte[]> lastMark = null;
+    // a block was stored since the mark, a pinned dag may be more complete now
+    private volatile boolean changed = true;
+
+    public GarbageCollector(@NonNull BlockStore blockStore, @NonNull Storage storage,
+                            @NonNull PINS pins) {
+        this.blockStore = blockStore;
+        this.reader = BlockStore.createBlockStore(storage);
+        this.storage = storage;
+        this.pins = pins;
+    }
+
+    @NonNull
+    private static BloomFilter<byte[]> createFilter(int expected) {
+        return BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(expected, 1),
+                FALSE_POSITIVES);
+    }
+
+    public void stored(@NonNull Cid cid) {
+        stored.put(cid.bytes());
+        changed = true;
+    }
+
+    private boolean isStored(@NonNull byte[] id) {
+        return stored.mightContain(id) || previous.mightContain(id);
+    }
+
+    // the collection runs in the background, a request while it is waiting is ignored
+    public void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                scheduled.set(false);
+                try {
+                    collect(() -> false);
+                } catch (Throwable throwable) {
+                    LogUtils.error(TAG, throwable);
+                }
+            });
+        }
+    }
+
+    public synchronized void collect(@NonNull Closeable closeable) throws ClosedException {
+        long start = System.currentTimeMillis();
+
+        previous = stored;
+        stored = createFilter(STORED_EXPECTED);
+
+        int count = storage.getCount();
+        BloomFilter<byte[]> marked = getMarked(closeable, count);
+
+        // the ids are visited in pages, only a batch of the garbage is kept in memory
+        List<Cid> batch = new ArrayList<>();
+        AtomicInteger removed = new AtomicInteger(0);
+        storage.forEachId(id -> {
+            if (closeable.isClosed()) {
+                return false;
+            }
+            if (!marked.mightContain(id) && !isStored(id)) {
+                batch.add(new Cid(id));
+                if (batch.size() >= DELETE_BATCH) {
+                    removed.addAndGet(delete(batch));
+                }
+            }
+            return true;
+        });
+        removed.addAndGet(delete(batch));
+        if (closeable.isClosed()) {
+            throw new ClosedException();
+        }
+        LogUtils.info(TAG, "Collect removed " + removed.get() + " of " + count +
+                " blocks [" + (System.currentTimeMillis() - start) + "]...");
+    }
+
+    // Pins are changed with the lock of the collector, as the pins are only read by the
+    // mark, a root pinned during a running collection would be swept.
+    public synchronized void pin(@NonNull Cid cid) {
+        pins.pin(cid.bytes());
+        lastMark = null;
+    }
+
+    public synchronized void unpin(@NonNull Cid cid) {
+        pins.unpin(cid.bytes());
+        lastMark = null;
+    }
+
+    // removes the blocks of the dag which are not reachable from a pin
+    public synchronized void remove(@NonNull Closeable closeable, @NonNull Cid root)
+            throws ClosedException {
+        BloomFilter<byte[]> marked = getMarked(closeable, storage.getCount());
+
+        List<Cid> batch = new ArrayList<>();
+        walk(closeable, root, (cid) -> {
+            if (!marked.mightContain(cid.bytes())) {
+                batch.add(cid);
+                if (batch.size() >= DELETE_BATCH) {
+                    delete(batch);
+                }
+            }
+        });
+        delete(batch);
+    }
+
+    private int delete(@NonNull List<Cid> batch) {
+        int size = batch.size();
+        if (size > 0) {
+            blockStore.deleteBlocks(batch);
+            batch.clear();
+        }
+        return size;
+    }
+
+    // holds the lock, the kept mark is used while the pins and the blocks are unchanged
+    @NonNull
+    private BloomFilter<byte[]> getMarked(@NonNull Closeable closeable, int expected)
+            throws ClosedException {
+        BloomFilter<byte[]> result = lastMark;
+        if (result == null || changed) {
+            lastMark = null;
+            changed = false;
+            result = mark(closeable, expected);
+            lastMark = result;
+        }
+        return result;
+    }
+
+    @NonNull
+    private BloomFilter<byte[]> mark(@NonNull Closeable closeable, int expected)
+            throws ClosedException {
+        BloomFilter<byte[]> marked = createFilter(expected);
+        Set<Cid> visited = new HashSet<>();
+        for (byte[] pin : pins.getPins()) {
+            walk(closeable, new Cid(pin), visited, (cid) -> marked.put(cid.bytes()));
+        }
+        return marked;
+    }
+
+    private void walk(@NonNull Closeable closeable, @NonNull Cid root,
+                      @NonNull Visit visit) throws ClosedException {
+        walk(closeable, root, new HashSet<>(), visit);
+    }
+
+    // depth first walk over the locally stored blocks of the dag, the stack only holds
+    // the links of the nodes on the current path
+    private void walk(@NonNull Closeable closeable, @NonNull Cid root,
+                      @NonNull Set<Cid> visited, @NonNull Visit visit) throws ClosedException {
+        Deque<Cid> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            if (closeable.isClosed()) {
+                throw new ClosedException();
+            }
+            Cid cid = stack.pop();
+            if (visited.contains(cid)) {
+                continue;
+            }
+            List<Link> links = getLinks(cid);
+            visit.accept(cid);
+            if (!links.isEmpty()) {
+                visited.add(cid);
+                for (Link link : links) {
+                    stack.push(link.getCid());
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private List<Link> getLinks(@NonNull Cid cid) {
+        if (cid.getType() == Cid.Raw) {
+            return new ArrayList<>();
+        }
+        Block block = reader.getBlock(cid);
+        if (block == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return Decoder.Decode(block).getLinks();
+        } catch (Throwable throwable) {
+            // codecs which are not supported do not have links
+            return new ArrayList<>();
+        }
+    }
+
+    private interface Visit {
+        void accept(@NonNull Cid cid);
+    }
+}
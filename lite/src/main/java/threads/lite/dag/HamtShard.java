@@ -0,0 +1,362 @@
+package threads.lite.dag;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import threads.lite.cid.Builder;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.format.Link;
+import threads.lite.format.Node;
+import threads.lite.format.NodeGetter;
+import threads.lite.format.ProtoNode;
+
+// Hash array mapped trie of a directory, as the go-ipfs sharded directories. The murmur3
+// hash of a name selects one of FANOUT slots per level, a slot contains the entry or a
+// child shard. The link names are the hex index of the slot, followed by the name for
+// an entry. Only the shards on the path of a name are loaded and encoded again.
+public class HamtShard {
+
+    public static final int FANOUT = 256;
+    private static final int BITS = 8; // log2(FANOUT)
+    private static final int MAX_DEPTH = 64 / BITS;
+    private static final long HASH_MURMUR3 = 0x22;
+
+    @NonNull
+    private final DagService dagService;
+    @NonNull
+    private final Builder builder;
+    private final int depth;
+    private final Slot[] slots = new Slot[FANOUT];
+
+    private HamtShard(@NonNull DagService dagService, @NonNull Builder builder, int depth) {
+        this.dagService = dagService;
+        this.builder = builder;
+        this.depth = depth;
+    }
+
+    @NonNull
+    public static HamtShard createHamtShard(@NonNull DagService dagService,
+                                            @NonNull Builder builder) {
+        return new HamtShard(dagService, builder, 0);
+    }
+
+    @NonNull
+    public static HamtShard loadHamtShard(@NonNull DagService dagService,
+                                          @NonNull Builder builder,
+                                          @NonNull ProtoNode node) {
+        HamtShard shard = new HamtShard(dagService, builder, 0);
+        shard.load(node);
+        return shard;
+    }
+
+    public static boolean isHamtShard(@NonNull Node node) {
+        if (node instanceof ProtoNode) {
+            FSNode fsNode = FSNode.extractFSNode(node);
+            return fsNode.Type() == unixfs.pb.Unixfs.Data.DataType.HAMTShard;
+        }
+        return false;
+    }
+
+    // the link of the name, only the shards on the path of the name are fetched
+    @Nullable
+    public static Link find(@NonNull Closeable closeable, @NonNull NodeGetter nodeGetter,
+                            @NonNull ProtoNode node, @NonNull String name) throws ClosedException {
+        long hash = hash(name);
+        for (int depth = 0; depth < MAX_DEPTH; depth++) {
+            Link link = getLink(node, index(hash, depth));
+            if (link == null) {
+                return null;
+            }
+            String linkName = link.getName();
+            if (linkName.length() > 2) {
+                if (Objects.equals(linkName.substring(2), name)) {
+                    return Link.create(link.getCid().bytes(), name, link.getSize());
+                }
+                return null;
+            }
+            node = (ProtoNode) link.getNode(closeable, nodeGetter);
+            Objects.requireNonNull(node);
+        }
+        return null;
+    }
+
+    // all entries of the shard and its child shards
+    public static void getLinks(@NonNull Closeable closeable, @NonNull NodeGetter nodeGetter,
+                                @NonNull ProtoNode node, @NonNull List<Link> result)
+            throws ClosedException {
+        for (Link link : node.getLinks()) {
+            if (closeable.isClosed()) {
+                throw new ClosedException();
+            }
+            String linkName = link.getName();
+            if (linkName.length() > 2) {
+                result.add(Link.create(link.getCid().bytes(), linkName.substring(2),
+                        link.getSize()));
+            } else {
+                ProtoNode child = (ProtoNode) link.getNode(closeable, nodeGetter);
+                Objects.requireNonNull(child);
+                getLinks(closeable, nodeGetter, child, result);
+            }
+        }
+    }
+
+    // the link of the slot, the links are ordered by the slot index
+    @Nullable
+    private static Link getLink(@NonNull ProtoNode node, int index) {
+        BigInteger bitfield = getBitfield(node);
+        if (!bitfield.testBit(index)) {
+            return null;
+        }
+        int position = bitfield.and(BigInteger.ONE.shiftLeft(index)
+                .subtract(BigInteger.ONE)).bitCount();
+        return node.getLinks().get(position);
+    }
+
+    @NonNull
+    private static BigInteger getBitfield(@NonNull ProtoNode node) {
+        FSNode fsNode = FSNode.extractFSNode(node);
+        if (fsNode.Type() != unixfs.pb.Unixfs.Data.DataType.HAMTShard) {
+            throw new RuntimeException("node is not a hamt shard");
+        }
+        if (fsNode.fanout() != FANOUT || fsNode.hashType() != HASH_MURMUR3) {
+            throw new RuntimeException("hamt shard not supported");
+        }
+        return new BigInteger(1, fsNode.getData());
+    }
+
+    // the first 64 bits of murmur3 x64 128, as used by go-ipfs
+    private static long hash(@NonNull String name) {
+        return Hashing.murmur3_128().hashBytes(
+                name.getBytes(StandardCharsets.UTF_8)).asLong();
+    }
+
+    // the bits of a level are taken from the big endian hash, starting at the top
+    private static int index(long hash, int depth) {
+        if (depth >= MAX_DEPTH) {
+            throw new RuntimeException("hamt shard ran out of hash bits");
+        }
+        return (int) ((hash >>> (64 - BITS * (depth + 1))) & (FANOUT - 1));
+    }
+
+    @NonNull
+    private static String prefix(int index) {
+        return String.format(Locale.US, "%02X", index);
+    }
+
+    private void load(@NonNull ProtoNode node) {
+        BigInteger bitfield = getBitfield(node);
+        List<Link> links = node.getLinks();
+        int position = 0;
+        for (int index = 0; index < FANOUT; index++) {
+            if (bitfield.testBit(index)) {
+                Link link = links.get(position++);
+                String linkName = link.getName();
+                if (linkName.length() > 2) {
+                    slots[index] = Slot.createEntry(Link.create(link.getCid().bytes(),
+                            linkName.substring(2), link.getSize()));
+                } else {
+                    slots[index] = Slot.createShard(link, null);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private HamtShard getShard(@NonNull Closeable closeable, @NonNull Slot slot)
+            throws ClosedException {
+        if (slot.shard == null) {
+            Objects.requireNonNull(slot.link);
+            ProtoNode node = (ProtoNode) slot.link.getNode(closeable, dagService);
+            Objects.requireNonNull(node);
+            HamtShard shard = new HamtShard(dagService, builder, depth + 1);
+            shard.load(node);
+            slot.shard = shard;
+        }
+        return slot.shard;
+    }
+
+    @Nullable
+    public Link getLink(@NonNull Closeable closeable, @NonNull String name) throws ClosedException {
+        long hash = hash(name);
+        HamtShard shard = this;
+        while (true) {
+            Slot slot = shard.slots[index(hash, shard.depth)];
+            if (slot == null) {
+                return null;
+            }
+            if (slot.entry != null) {
+                if (Objects.equals(slot.entry.getName(), name)) {
+                    return slot.entry;
+                }
+                return null;
+            }
+            shard = shard.getShard(closeable, slot);
+        }
+    }
+
+    // visits the entries of the shard and its child shards, the child shards are loaded,
+    // returns false when the visitor stopped the iteration
+    public boolean forEachLink(@NonNull Closeable closeable, @NonNull Predicate<Link> visitor)
+            throws ClosedException {
+        for (Slot slot : slots) {
+            if (closeable.isClosed()) {
+                throw new ClosedException();
+            }
+            if (slot == null) {
+                continue;
+            }
+            if (slot.entry != null) {
+                if (!visitor.test(slot.entry)) {
+                    return false;
+                }
+            } else if (!getShard(closeable, slot).forEachLink(closeable, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setLink(@NonNull Closeable closeable, @NonNull Link link) throws ClosedException {
+        set(closeable, hash(link.getName()), link);
+    }
+
+    private void set(@NonNull Closeable closeable, long hash, @NonNull Link link)
+            throws ClosedException {
+        int index = index(hash, depth);
+        Slot slot = slots[index];
+        if (slot == null) {
+            slots[index] = Slot.createEntry(link);
+        } else if (slot.entry != null) {
+            if (Objects.equals(slot.entry.getName(), link.getName())) {
+                slots[index] = Slot.createEntry(link);
+            } else {
+                // both entries move into a new child shard
+                HamtShard shard = new HamtShard(dagService, builder, depth + 1);
+                shard.set(closeable, hash(slot.entry.getName()), slot.entry);
+                shard.set(closeable, hash, link);
+                slots[index] = Slot.createShard(null, shard);
+            }
+        } else {
+            getShard(closeable, slot).set(closeable, hash, link);
+        }
+    }
+
+    public boolean removeLink(@NonNull Closeable closeable, @NonNull String name)
+            throws ClosedException {
+        return remove(closeable, hash(name), name);
+    }
+
+    private boolean remove(@NonNull Closeable closeable, long hash, @NonNull String name)
+            throws ClosedException {
+        int index = index(hash, depth);
+        Slot slot = slots[index];
+        if (slot == null) {
+            return false;
+        }
+        if (slot.entry != null) {
+            if (Objects.equals(slot.entry.getName(), name)) {
+                slots[index] = null;
+                return true;
+            }
+            return false;
+        }
+        HamtShard shard = getShard(closeable, slot);
+        if (!shard.remove(closeable, hash, name)) {
+            return false;
+        }
+        // a child shard with a single entry is replaced by the entry, so that the
+        // structure does not depend on the order of the modifications
+        Slot single = null;
+        int count = 0;
+        for (Slot child : shard.slots) {
+            if (child != null) {
+                count++;
+                single = child;
+            }
+        }
+        if (count == 0) {
+            slots[index] = null;
+        } else if (count == 1 && single.entry != null) {
+            slots[index] = single;
+        }
+        return true;
+    }
+
+    // encodes the loaded shards, the child shards are added to the dag service
+    @NonNull
+    public ProtoNode getNode() {
+        BigInteger bitfield = BigInteger.ZERO;
+        ProtoNode node = new ProtoNode();
+        node.setCidBuilder(builder);
+        for (int index = 0; index < FANOUT; index++) {
+            Slot slot = slots[index];
+            if (slot == null) {
+                continue;
+            }
+            bitfield = bitfield.setBit(index);
+            String prefix = prefix(index);
+            if (slot.entry != null) {
+                node.addRawLink(Link.create(slot.entry.getCid().bytes(),
+                        prefix + slot.entry.getName(), slot.entry.getSize()));
+            } else if (slot.shard != null) {
+                ProtoNode child = slot.shard.getNode();
+                dagService.add(child);
+                node.addNodeLink(prefix, child);
+            } else {
+                Objects.requireNonNull(slot.link);
+                node.addRawLink(Link.create(slot.link.getCid().bytes(), prefix,
+                        slot.link.getSize()));
+            }
+        }
+
+        // minimal big endian representation, without the leading zero (sign) bytes
+        byte[] bytes = bitfield.toByteArray();
+        int offset = 0;
+        while (offset < bytes.length && bytes[offset] == 0) {
+            offset++;
+        }
+        unixfs.pb.Unixfs.Data data = unixfs.pb.Unixfs.Data.newBuilder()
+                .setType(unixfs.pb.Unixfs.Data.DataType.HAMTShard)
+                .setData(ByteString.copyFrom(bytes, offset, bytes.length - offset))
+                .setHashType(HASH_MURMUR3)
+                .setFanout(FANOUT)
+                .build();
+        node.setData(data.toByteArray());
+        return node;
+    }
+
+    private static class Slot {
+        @Nullable
+        final Link entry;
+        // link of a child shard which is not loaded yet
+        @Nullable
+        final Link link;
+        @Nullable
+        HamtShard shard;
+
+        private Slot(@Nullable Link entry, @Nullable Link link, @Nullable HamtShard shard) {
+            this.entry = entry;
+            this.link = link;
+            this.shard = shard;
+        }
+
+        static Slot createEntry(@NonNull Link entry) {
+            return new Slot(entry, null, null);
+        }
+
+        static Slot createShard(@Nullable Link link, @Nullable HamtShard shard) {
+            return new Slot(null, link, shard);
+        }
+    }
+}
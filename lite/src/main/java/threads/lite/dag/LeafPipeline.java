@@ -0,0 +1,131 @@
+package threads.lite.dag;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import threads.lite.format.Node;
+import threads.lite.utils.Splitter;
+
+// Staged import of leaves: a reader thread slices the input with the splitter, a worker
+// pool encodes and hashes the leaves, and the dag builder takes them in input order.
+// Each item records the done state of the splitter after it was read, so the builder
+// sees exactly the same sequence of leaves and done states as a sequential import,
+// which keeps the layout and all cids identical. The chunks in flight are bounded
+// by a byte budget.
+public class LeafPipeline {
+
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    @NonNull
+    private final BlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    @NonNull
+    private final Semaphore budget;
+    private final int permits;
+    private volatile boolean closed = false;
+    private boolean done = false;
+
+    private LeafPipeline(long budget) {
+        this.permits = (int) Math.min(Math.max(budget, 1), Integer.MAX_VALUE);
+        this.budget = new Semaphore(permits);
+    }
+
+    @NonNull
+    public static LeafPipeline start(@NonNull Splitter splitter,
+                                     @NonNull Function<byte[], Node> leaf, long budget) {
+        LeafPipeline pipeline = new LeafPipeline(budget);
+        Thread thread = new Thread(() -> pipeline.read(splitter, leaf));
+        thread.setDaemon(true);
+        thread.start();
+        return pipeline;
+    }
+
+    private void read(@NonNull Splitter splitter, @NonNull Function<byte[], Node> leaf) {
+        try {
+            boolean finished = false;
+            while (!finished && !closed) {
+                byte[] data = splitter.nextBytes();
+                finished = splitter.done();
+                if (data == null) {
+                    queue.put(new Item(CompletableFuture.completedFuture(null), 0, finished));
+                    continue;
+                }
+                int length = Math.min(data.length, permits);
+                while (!budget.tryAcquire(length, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        return;
+                    }
+                }
+                Future<Pair<Node, Integer>> future = WORKERS.submit(() -> {
+                    Node node = leaf.apply(data);
+                    node.getCid(); // encodes and hashes the leaf within the worker
+                    return Pair.create(node, data.length);
+                });
+                queue.put(new Item(future, length, finished));
+            }
+        } catch (Throwable throwable) {
+            CompletableFuture<Pair<Node, Integer>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(throwable);
+            queue.add(new Item(failed, 0, true));
+        }
+    }
+
+    // the next leaf in input order, null when the splitter returned no data
+    @Nullable
+    public Pair<Node, Integer> next() {
+        try {
+            Item item = queue.take();
+            try {
+                done = item.done;
+                return item.future.get();
+            } finally {
+                budget.release(item.permits);
+            }
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(interruptedException);
+        }
+    }
+
+    // done state of the splitter after the last leaf taken by next
+    public boolean done() {
+        return done;
+    }
+
+    public void close() {
+        closed = true;
+        queue.clear();
+        budget.release(permits);
+    }
+
+    private static class Item {
+        final Future<Pair<Node, Integer>> future;
+        final int permits;
+        final boolean done;
+
+        Item(@NonNull Future<Pair<Node, Integer>> future, int permits, boolean done) {
+            this.future = future;
+            this.permits = permits;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package threads.lite.dag;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import threads.lite.cid.Builder;
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.format.Link;
+import threads.lite.format.Node;
+
+// In memory tree of directories, modifications are collected and commit encodes each
+// modified directory once, bottom up, instead of re-encoding the whole path to the
+// root for every single modification
+public class MutableDirectory {
+
+    @NonNull
+    private final DagService dagService;
+    @NonNull
+    private final Directory directory;
+    // the opened child directories
+    @NonNull
+    private final HashMap<String, MutableDirectory> children = new HashMap<>();
+    @NonNull
+    private final Builder builder;
+    @NonNull
+    private Node node;
+    private boolean dirty;
+
+    MutableDirectory(@NonNull DagService dagService, @NonNull Builder builder,
+                     @NonNull Node node, boolean dirty) {
+        Directory dir = Directory.createDirectoryFromNode(dagService, node);
+        if (dir == null) {
+            throw new RuntimeException("not a directory");
+        }
+        dir.setCidBuilder(builder);
+        this.dagService = dagService;
+        this.builder = builder;
+        this.directory = dir;
+        this.node = node;
+        this.dirty = dirty;
+    }
+
+    // the child directory, it is created when it does not exist
+    @NonNull
+    public MutableDirectory getDirectory(@NonNull Closeable closeable, @NonNull String name)
+            throws ClosedException {
+        MutableDirectory child = children.get(name);
+        if (child == null) {
+            Link link = directory.getLink(closeable, name);
+            if (link == null) {
+                child = new MutableDirectory(dagService, builder,
+                        Directory.emptyDirNode(), true);
+            } else {
+                Node childNode = link.getNode(closeable, dagService);
+                Objects.requireNonNull(childNode);
+                child = new MutableDirectory(dagService, builder, childNode, false);
+            }
+            children.put(name, child);
+        }
+        return child;
+    }
+
+    public void addLink(@NonNull Closeable closeable, @NonNull String name, @NonNull Cid cid)
+            throws ClosedException {
+        Node link = dagService.getNode(closeable, cid, true);
+        Objects.requireNonNull(link);
+        children.remove(name);
+        directory.addChild(closeable, name, link);
+        dirty = true;
+    }
+
+    public void removeLink(@NonNull Closeable closeable, @NonNull String name)
+            throws ClosedException {
+        children.remove(name);
+        directory.removeChild(closeable, name);
+        dirty = true;
+    }
+
+    // the cid of the last commit
+    @NonNull
+    public Cid getCid() {
+        return node.getCid();
+    }
+
+    @NonNull
+    public Cid commit(@NonNull Closeable closeable) throws ClosedException {
+        commitChanges(closeable);
+        return getCid();
+    }
+
+    private boolean commitChanges(@NonNull Closeable closeable) throws ClosedException {
+        for (Map.Entry<String, MutableDirectory> entry : children.entrySet()) {
+            MutableDirectory child = entry.getValue();
+            if (child.commitChanges(closeable)) {
+                directory.addChild(closeable, entry.getKey(), child.node);
+                dirty = true;
+            }
+        }
+        if (dirty) {
+            node = directory.getNode();
+            dagService.add(node);
+            dirty = false;
+            return true;
+        }
+        return false;
+    }
+}
@@ -7,10 +7,13 @@ import androidx.annotation.Nullable;
 import androidx.room.Room;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 
 public class BLOCKS implements Storage {
 
+    private static final int DELETE_BATCH = 500;
+    private static final int ID_PAGE_SIZE = 1000;
     private static BLOCKS INSTANCE = null;
     private final BlocksDatabase blocksDatabase;
 
@@ -34,6 +37,7 @@ public class BLOCKS implements Storage {
                     BlocksDatabase blocksDatabase = Room.databaseBuilder(context, BlocksDatabase.class,
                             BlocksDatabase.class.getSimpleName()).
                             allowMainThreadQueries().
+                            addMigrations(BlocksDatabase.MIGRATION_2_3).
                             fallbackToDestructiveMigration().build();
 
                     INSTANCE = BLOCKS.createBlocks(blocksDatabase);
@@ -45,14 +49,11 @@ public class BLOCKS implements Storage {
 
     @Nullable
     @Override
-    public byte[] getData(@NonNull String id) {
-        Block block = getBlock(id);
-        if (block != null) {
-            return block.getData();
-        }
-        return null;
+    public byte[] getData(@NonNull byte[] id) {
+        return getBlocksDatabase().blockDao().getData(id);
     }
 
+    @Override
     public void clear() {
         getBlocksDatabase().clearAllTables();
     }
@@ -65,7 +66,7 @@ public class BLOCKS implements Storage {
 
 
     @NonNull
-    private Block createBlock(@NonNull String id, @NonNull byte[] data) {
+    private Block createBlock(@NonNull byte[] id, @NonNull byte[] data) {
         //LogUtils.error(TAG, "createBlock " +  id);
         return Block.createBlock(id, data);
     }
@@ -74,26 +75,67 @@ public class BLOCKS implements Storage {
         getBlocksDatabase().blockDao().insertBlock(block);
     }
 
-    public void deleteBlock(@NonNull String id) {
+    public void deleteBlock(@NonNull byte[] id) {
         //LogUtils.error(TAG, "deleteBlock " +  id);
         getBlocksDatabase().blockDao().deleteBlock(id);
     }
 
+    // the blocks are deleted within a single transaction, a statement for each
+    // DELETE_BATCH ids, as SQLite limits the number of variables of a statement
+    @Override
+    public void deleteBlocks(@NonNull List<byte[]> ids) {
+        getBlocksDatabase().runInTransaction(() -> {
+            for (int i = 0; i < ids.size(); i += DELETE_BATCH) {
+                getBlocksDatabase().blockDao().deleteBlocks(
+                        ids.subList(i, Math.min(ids.size(), i + DELETE_BATCH)));
+            }
+        });
+    }
+
     @Override
-    public int sizeBlock(@NonNull String id) {
+    public int sizeBlock(@NonNull byte[] id) {
         return (int) getBlockSize(id);
     }
 
-    public void insertBlock(@NonNull String id, @NonNull byte[] bytes) {
+    public void insertBlock(@NonNull byte[] id, @NonNull byte[] bytes) {
         //LogUtils.error(TAG, "insertBlock " +  id);
         storeBlock(createBlock(id, bytes));
     }
 
-    public boolean hasBlock(@NonNull String id) {
+    // all blocks are inserted within a single transaction
+    @Override
+    public void insertBlocks(@NonNull List<Block> blocks) {
+        getBlocksDatabase().blockDao().insertBlocks(blocks);
+    }
+
+    public boolean hasBlock(@NonNull byte[] id) {
         return getBlocksDatabase().blockDao().hasBlock(id);
     }
 
-    public long getBlockSize(@NonNull String id) {
+    // the ids are loaded in pages ordered by id, the next page starts after the last id
+    @Override
+    public void forEachId(@NonNull Predicate<byte[]> visitor) {
+        byte[] after = new byte[0];
+        while (true) {
+            List<byte[]> ids = getBlocksDatabase().blockDao().getIds(after, ID_PAGE_SIZE);
+            for (byte[] id : ids) {
+                if (!visitor.test(id)) {
+                    return;
+                }
+            }
+            if (ids.size() < ID_PAGE_SIZE) {
+                return;
+            }
+            after = ids.get(ids.size() - 1);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return getBlocksDatabase().blockDao().getCount();
+    }
+
+    public long getBlockSize(@NonNull byte[] id) {
         //LogUtils.error(TAG, "getBlockSize " +  id);
         return getBlocksDatabase().blockDao().getBlockSize(id);
     }
@@ -104,7 +146,7 @@ public class BLOCKS implements Storage {
     }
 
     @Nullable
-    public Block getBlock(@NonNull String id) {
+    public Block getBlock(@NonNull byte[] id) {
         //LogUtils.error(TAG, "getBlock " +  id);
         return getBlocksDatabase().blockDao().getBlock(id);
     }
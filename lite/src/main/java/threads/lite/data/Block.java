@@ -10,22 +10,22 @@ public class Block {
 
     @PrimaryKey
     @NonNull
-    @ColumnInfo(name = "id")
-    private final String id;
+    @ColumnInfo(name = "id", typeAffinity = ColumnInfo.BLOB)
+    private final byte[] id;
     @NonNull
     @ColumnInfo(typeAffinity = ColumnInfo.BLOB)
     private final byte[] data;
     @ColumnInfo(name = "size")
     private final long size;
 
-    Block(@NonNull String id, @NonNull byte[] data, long size) {
+    Block(@NonNull byte[] id, @NonNull byte[] data, long size) {
 
         this.id = id;
         this.data = data;
         this.size = size;
     }
 
-    public static Block createBlock(@NonNull String id, @NonNull byte[] data) {
+    public static Block createBlock(@NonNull byte[] id, @NonNull byte[] data) {
         return new Block(id, data, data.length);
     }
 
@@ -40,7 +40,7 @@ public class Block {
 
 
     @NonNull
-    public String getId() {
+    public byte[] getId() {
         return id;
     }
 
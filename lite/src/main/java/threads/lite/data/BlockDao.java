@@ -13,17 +13,32 @@ public interface BlockDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertBlock(Block block);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertBlocks(List<Block> blocks);
+
     @Query("DELETE FROM Block WHERE id = :id")
-    void deleteBlock(String id);
+    void deleteBlock(byte[] id);
+
+    @Query("DELETE FROM Block WHERE id IN (:ids)")
+    void deleteBlocks(List<byte[]> ids);
 
     @Query("SELECT 1 FROM Block WHERE id = :id")
-    boolean hasBlock(String id);
+    boolean hasBlock(byte[] id);
 
     @Query("SELECT * FROM Block WHERE id = :id")
-    Block getBlock(String id);
+    Block getBlock(byte[] id);
+
+    @Query("SELECT data FROM Block WHERE id = :id")
+    byte[] getData(byte[] id);
 
     @Query("SELECT size FROM Block WHERE id = :id")
-    long getBlockSize(String id);
+    long getBlockSize(byte[] id);
+
+    @Query("SELECT id FROM Block WHERE id > :after ORDER BY id LIMIT :limit")
+    List<byte[]> getIds(byte[] after, int limit);
+
+    @Query("SELECT COUNT(*) FROM Block")
+    int getCount();
 
     @Query("SELECT * FROM Block")
     List<Block> getBlocks();
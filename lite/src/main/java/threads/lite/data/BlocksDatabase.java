@@ -1,10 +1,45 @@
 package threads.lite.data;
 
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.google.common.io.BaseEncoding;
 
-@androidx.room.Database(entities = {Block.class}, version = 2, exportSchema = false)
+@androidx.room.Database(entities = {Block.class}, version = 3, exportSchema = false)
 public abstract class BlocksDatabase extends RoomDatabase {
 
+    // Version 2 used the base32 encoded cid as TEXT primary key, version 3 uses
+    // the raw cid bytes as BLOB primary key. The data is copied within SQLite,
+    // only the keys are decoded on the java side.
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Block_new` (`id` BLOB NOT NULL, " +
+                    "`data` BLOB NOT NULL, `size` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+
+            SupportSQLiteStatement statement = database.compileStatement(
+                    "INSERT OR REPLACE INTO `Block_new` (`id`, `data`, `size`) " +
+                            "SELECT ?, `data`, `size` FROM `Block` WHERE `id` = ?");
+            try (Cursor cursor = database.query("SELECT `id` FROM `Block`")) {
+                while (cursor.moveToNext()) {
+                    String id = cursor.getString(0);
+                    statement.clearBindings();
+                    statement.bindBlob(1, BaseEncoding.base32().decode(id));
+                    statement.bindString(2, id);
+                    statement.executeInsert();
+                }
+            }
+
+            database.execSQL("DROP TABLE `Block`");
+            database.execSQL("ALTER TABLE `Block_new` RENAME TO `Block`");
+        }
+    };
+
     public abstract BlockDao blockDao();
 
 }
@@ -0,0 +1,694 @@
+package threads.lite.data;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import threads.lite.LogUtils;
+
+// Block storage based on append-only pack files. Every pack file contains a sequence of
+// records [key length][key][data length][data], the index journal maps each key to the
+// pack, offset and length of its data, so a read is a single positional read.
+// The journal is replayed on startup, when it is missing it is rebuild from the packs.
+// The pack data is forced before its journal entries are written, entries which point
+// beyond the end of a pack are dropped on replay. When the deleted blocks make up a large
+// part of the pack files, the packs are compacted in the background.
+public class PACKS implements Storage {
+
+    private static final String TAG = PACKS.class.getSimpleName();
+    private static final String DIRECTORY = "packs";
+    private static final String INDEX = "index";
+    private static final String INDEX_COMPACT = "index.compact";
+    private static final String PACK_PREFIX = "pack-";
+    private static final long PACK_SIZE_LIMIT = 256L * 1024 * 1024; // 256 MB
+    private static final long COMPACT_MIN_GARBAGE = 64L * 1024 * 1024; // 64 MB
+    private static final double COMPACT_RATIO = 0.5; // garbage of the pack bytes
+    private static final byte PUT = 1;
+    private static final byte DELETE = 0;
+    private static PACKS INSTANCE = null;
+
+    @NonNull
+    private final File directory;
+    @NonNull
+    private final ConcurrentHashMap<Key, Location> index = new ConcurrentHashMap<>();
+    @NonNull
+    private final ConcurrentHashMap<Integer, FileChannel> packs = new ConcurrentHashMap<>();
+    @NonNull
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    @NonNull
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor();
+    private FileChannel journal;
+    private int current = 0;
+    private long garbage = 0L;
+    private boolean compacting = false;
+
+    private PACKS(PACKS.Builder builder) {
+        this.directory = builder.directory;
+    }
+
+    @NonNull
+    private static PACKS createPacks(@NonNull File directory) throws IOException {
+
+        PACKS packs = new PACKS.Builder()
+                .directory(directory)
+                .build();
+        packs.open();
+        return packs;
+    }
+
+    public static PACKS getInstance(@NonNull Context context) {
+
+        if (INSTANCE == null) {
+            synchronized (PACKS.class) {
+                if (INSTANCE == null) {
+                    try {
+                        File directory = new File(context.getFilesDir(), DIRECTORY);
+                        INSTANCE = PACKS.createPacks(directory);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static int packId(@NonNull File file) {
+        try {
+            String name = file.getName();
+            if (name.startsWith(PACK_PREFIX)) {
+                return Integer.parseInt(name.substring(PACK_PREFIX.length()));
+            }
+        } catch (NumberFormatException ignore) {
+            // not a pack file
+        }
+        return -1;
+    }
+
+    private static void write(@NonNull FileChannel channel, @NonNull ByteBuffer buffer,
+                              long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(@NonNull FileChannel channel, @NonNull ByteBuffer buffer,
+                             long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory.getAbsolutePath());
+        }
+
+        File compact = new File(directory, INDEX_COMPACT);
+        if (compact.exists() && !compact.delete()) {
+            LogUtils.error(TAG, "can not delete " + compact.getName());
+        }
+
+        for (int id : packIds()) {
+            openPack(id);
+            current = Math.max(current, id);
+        }
+        if (!packs.containsKey(current)) {
+            openPack(current);
+        }
+
+        File file = new File(directory, INDEX);
+        boolean exists = file.exists();
+        journal = new RandomAccessFile(file, "rw").getChannel();
+        if (exists) {
+            replay(file);
+        } else {
+            rebuild();
+        }
+    }
+
+    @NonNull
+    private List<Integer> packIds() {
+        List<Integer> ids = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int id = packId(file);
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @NonNull
+    private FileChannel openPack(int id) throws IOException {
+        FileChannel channel = createPack(id);
+        packs.put(id, channel);
+        return channel;
+    }
+
+    @NonNull
+    private FileChannel createPack(int id) throws IOException {
+        return new RandomAccessFile(new File(directory, PACK_PREFIX + id), "rw").getChannel();
+    }
+
+    private void replay(@NonNull File file) throws IOException {
+        Map<Integer, Long> sizes = new HashMap<>();
+        for (Map.Entry<Integer, FileChannel> entry : packs.entrySet()) {
+            sizes.put(entry.getKey(), entry.getValue().size());
+        }
+        long valid = 0L;
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte op = inputStream.readByte();
+                byte[] key = new byte[inputStream.readUnsignedShort()];
+                inputStream.readFully(key);
+                int pack = inputStream.readInt();
+                long offset = inputStream.readLong();
+                int length = inputStream.readInt();
+
+                if (op == PUT) {
+                    // the data of the entry did not reach the pack before a crash
+                    Long size = sizes.get(pack);
+                    if (size != null && offset + length <= size) {
+                        index.put(new Key(key), new Location(pack, offset, length));
+                    } else {
+                        LogUtils.error(TAG, "Journal entry beyond pack " + pack);
+                    }
+                } else {
+                    Location location = index.remove(new Key(key));
+                    if (location != null) {
+                        garbage += location.length;
+                    }
+                }
+                valid += entrySize(key);
+            }
+        } catch (EOFException ignore) {
+            // end of journal reached, a partial entry of a crash is cut off
+        }
+        journal.truncate(valid);
+        journal.position(valid);
+    }
+
+    private void rebuild() throws IOException {
+        LogUtils.info(TAG, "Rebuild index from pack files");
+        for (Map.Entry<Integer, FileChannel> entry : packs.entrySet()) {
+            int id = entry.getKey();
+            FileChannel channel = entry.getValue();
+            long size = channel.size();
+            long position = 0L;
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            try {
+                while (position < size) {
+                    header.clear();
+                    read(channel, header, position);
+                    header.flip();
+                    ByteBuffer key = ByteBuffer.allocate(header.getInt());
+                    read(channel, key, position + Integer.BYTES);
+                    header.clear();
+                    long offset = position + Integer.BYTES + key.capacity();
+                    read(channel, header, offset);
+                    header.flip();
+                    int length = header.getInt();
+                    offset = offset + Integer.BYTES;
+                    if (offset + length > size) {
+                        throw new EOFException();
+                    }
+                    index.put(new Key(key.array()), new Location(id, offset, length));
+                    appendJournal(PUT, key.array(), id, offset, length);
+                    position = offset + length;
+                }
+            } catch (EOFException ignore) {
+                // partial record of a crash is cut off
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private int entrySize(@NonNull byte[] key) {
+        return 1 + Short.BYTES + key.length + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    }
+
+    private void appendJournal(byte op, @NonNull byte[] key, int pack, long offset, int length)
+            throws IOException {
+        writeJournal(journal, op, key, new Location(pack, offset, length));
+    }
+
+    private void writeJournal(@NonNull FileChannel channel, byte op, @NonNull byte[] key,
+                              @NonNull Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entrySize(key));
+        buffer.put(op).putShort((short) key.length).put(key)
+                .putInt(location.pack).putLong(location.offset).putInt(location.length);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static long recordSize(@NonNull byte[] key, int length) {
+        return Integer.BYTES + key.length + Integer.BYTES + length;
+    }
+
+    // writes the record at the position, returns the offset of the data
+    private static long writeRecord(@NonNull FileChannel pack, long position,
+                                    @NonNull byte[] key, @NonNull byte[] data)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + key.length + Integer.BYTES);
+        header.putInt(key.length).put(key).putInt(data.length);
+        header.flip();
+        write(pack, header, position);
+        long offset = position + header.capacity();
+        write(pack, ByteBuffer.wrap(data), offset);
+        return offset;
+    }
+
+    // a full pack is forced before the next one is started
+    @NonNull
+    private Location append(@NonNull byte[] key, @NonNull byte[] data) throws IOException {
+        FileChannel pack = packs.get(current);
+        long position = pack.size();
+        if (position > 0 && position + recordSize(key, data.length) > PACK_SIZE_LIMIT) {
+            pack.force(false);
+            current++;
+            pack = openPack(current);
+            position = 0L;
+        }
+        long offset = writeRecord(pack, position, key, data);
+        return new Location(current, offset, data.length);
+    }
+
+    @Override
+    public void insertBlock(@NonNull byte[] id, @NonNull byte[] bytes) {
+        lock.writeLock().lock();
+        try {
+            Key entry = new Key(id);
+            if (index.containsKey(entry)) {
+                // content addressed, the data is already stored
+                return;
+            }
+            Location location = append(id, bytes);
+            packs.get(current).force(false);
+            appendJournal(PUT, id, location.pack, location.offset, location.length);
+            index.put(entry, location);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the journal entries of all blocks are written with a single write call, after the
+    // pack data is forced, the blocks are visible when their entries are written
+    @Override
+    public void insertBlocks(@NonNull List<Block> blocks) {
+        lock.writeLock().lock();
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            List<Location> locations = new ArrayList<>();
+            Set<Key> added = new HashSet<>();
+            int size = 0;
+            for (Block block : blocks) {
+                byte[] key = block.getId();
+                Key entry = new Key(key);
+                if (index.containsKey(entry) || !added.add(entry)) {
+                    // content addressed, the data is already stored
+                    continue;
+                }
+                Location location = append(key, block.getData());
+                keys.add(key);
+                locations.add(location);
+                size += entrySize(key);
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+            packs.get(current).force(false);
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                Location location = locations.get(i);
+                buffer.put(PUT).putShort((short) key.length).put(key)
+                        .putInt(location.pack).putLong(location.offset).putInt(location.length);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                index.put(new Key(keys.get(i)), locations.get(i));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public byte[] getData(@NonNull byte[] id) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(new Key(id));
+            if (location == null) {
+                return null;
+            }
+            FileChannel pack = packs.get(location.pack);
+            if (pack == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            read(pack, buffer, location.offset);
+            return buffer.array();
+        } catch (IOException e) {
+            LogUtils.error(TAG, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteBlock(@NonNull byte[] id) {
+        lock.writeLock().lock();
+        try {
+            Location location = index.remove(new Key(id));
+            if (location != null) {
+                appendJournal(DELETE, id, location.pack, location.offset, location.length);
+                garbage += location.length;
+                scheduleCompact();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the journal entries of all blocks are written with a single write call
+    @Override
+    public void deleteBlocks(@NonNull List<byte[]> ids) {
+        lock.writeLock().lock();
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            List<Location> locations = new ArrayList<>();
+            int size = 0;
+            for (byte[] id : ids) {
+                Location location = index.remove(new Key(id));
+                if (location != null) {
+                    keys.add(id);
+                    locations.add(location);
+                    size += entrySize(id);
+                    garbage += location.length;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] key = keys.get(i);
+                Location location = locations.get(i);
+                buffer.put(DELETE).putShort((short) key.length).put(key)
+                        .putInt(location.pack).putLong(location.offset).putInt(location.length);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            scheduleCompact();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // holds the write lock, the compaction starts when the deletes are done
+    private void scheduleCompact() throws IOException {
+        if (compacting || garbage < COMPACT_MIN_GARBAGE) {
+            return;
+        }
+        long size = 0L;
+        for (FileChannel channel : packs.values()) {
+            size += channel.size();
+        }
+        if (garbage > size * COMPACT_RATIO) {
+            compacting = true;
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } finally {
+                    lock.writeLock().lock();
+                    compacting = false;
+                    lock.writeLock().unlock();
+                }
+            });
+        }
+    }
+
+    @Override
+    public int sizeBlock(@NonNull byte[] id) {
+        Location location = index.get(new Key(id));
+        if (location == null) {
+            return 0;
+        }
+        return location.length;
+    }
+
+    @Override
+    public boolean hasBlock(@NonNull byte[] id) {
+        return index.containsKey(new Key(id));
+    }
+
+    // the index is in memory, its iteration tolerates concurrent deletes
+    @Override
+    public void forEachId(@NonNull Predicate<byte[]> visitor) {
+        for (Key key : index.keySet()) {
+            if (!visitor.test(key.bytes)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return index.size();
+    }
+
+    // Bytes of deleted blocks which are still part of the pack files
+    public long getGarbage() {
+        return garbage;
+    }
+
+    // Rewrites all live blocks into new pack files and drops the old ones, afterwards the
+    // index journal only contains PUT entries. The new packs and journal are written on
+    // the side and forced, the rename of the journal is the commit, only then the state
+    // is switched. On a failure the partial files are deleted and nothing is changed.
+    public void compact() {
+        lock.writeLock().lock();
+        File compact = new File(directory, INDEX_COMPACT);
+        Map<Integer, FileChannel> created = new HashMap<>();
+        FileChannel compactJournal = null;
+        try {
+            if (garbage == 0L) {
+                return;
+            }
+            compactJournal = new RandomAccessFile(compact, "rw").getChannel();
+            compactJournal.truncate(0);
+
+            Map<Key, Location> moved = new HashMap<>();
+            int id = current + 1;
+            FileChannel target = createPack(id);
+            created.put(id, target);
+            long position = 0L;
+            for (Map.Entry<Key, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                FileChannel pack = packs.get(location.pack);
+                if (pack == null) {
+                    continue;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(location.length);
+                read(pack, buffer, location.offset);
+                byte[] key = entry.getKey().bytes;
+                if (position > 0 && position + recordSize(key, location.length)
+                        > PACK_SIZE_LIMIT) {
+                    id++;
+                    target = createPack(id);
+                    created.put(id, target);
+                    position = 0L;
+                }
+                long offset = writeRecord(target, position, key, buffer.array());
+                Location copy = new Location(id, offset, location.length);
+                writeJournal(compactJournal, PUT, key, copy);
+                moved.put(entry.getKey(), copy);
+                position = offset + location.length;
+            }
+            for (FileChannel channel : created.values()) {
+                channel.force(true);
+            }
+            compactJournal.force(true);
+            compactJournal.close();
+
+            File file = new File(directory, INDEX);
+            if (!compact.renameTo(file)) {
+                throw new IOException("can not replace " + file.getName());
+            }
+
+            // committed, the state is switched to the new packs and journal
+            List<Integer> old = new ArrayList<>(packs.keySet());
+            packs.putAll(created);
+            index.putAll(moved);
+            current = id;
+            garbage = 0L;
+            created.clear();
+            journal.close();
+            journal = new RandomAccessFile(file, "rw").getChannel();
+            journal.position(journal.size());
+
+            for (int pack : old) {
+                FileChannel channel = packs.remove(pack);
+                if (channel != null) {
+                    channel.close();
+                }
+                File packFile = new File(directory, PACK_PREFIX + pack);
+                if (!packFile.delete()) {
+                    LogUtils.error(TAG, "can not delete " + packFile.getName());
+                }
+            }
+        } catch (IOException e) {
+            LogUtils.error(TAG, e);
+            // the partial files of the compaction are not used
+            for (Map.Entry<Integer, FileChannel> entry : created.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException ignore) {
+                    // deleted anyway
+                }
+                File pack = new File(directory, PACK_PREFIX + entry.getKey());
+                if (!pack.delete()) {
+                    LogUtils.error(TAG, "can not delete " + pack.getName());
+                }
+            }
+            if (compactJournal != null) {
+                try {
+                    compactJournal.close();
+                } catch (IOException ignore) {
+                    // deleted anyway
+                }
+            }
+            if (compact.exists() && !compact.delete()) {
+                LogUtils.error(TAG, "can not delete " + compact.getName());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (FileChannel channel : packs.values()) {
+                channel.close();
+            }
+            journal.close();
+            packs.clear();
+            index.clear();
+            garbage = 0L;
+            current = 0;
+
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        LogUtils.error(TAG, "can not delete " + file.getName());
+                    }
+                }
+            }
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static class Builder {
+        File directory = null;
+
+        PACKS build() {
+
+            return new PACKS(this);
+        }
+
+        Builder directory(@NonNull File directory) {
+
+            this.directory = directory;
+            return this;
+        }
+    }
+
+    private static class Location {
+        final int pack;
+        final long offset;
+        final int length;
+
+        Location(int pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    static class Key {
+        final byte[] bytes;
+        final int hash;
+
+        Key(@NonNull byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
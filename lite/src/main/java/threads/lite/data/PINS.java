@@ -0,0 +1,129 @@
+package threads.lite.data;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import threads.lite.LogUtils;
+
+// The roots which are kept by the garbage collection. A root can be pinned several times
+// and is only released when it is unpinned as often. The pins are few, they are kept in
+// memory and the file is written again on every modification.
+public class PINS {
+
+    private static final String TAG = PINS.class.getSimpleName();
+    private static final String FILE = "pins";
+    private static PINS INSTANCE = null;
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final HashMap<PACKS.Key, Integer> pins = new HashMap<>();
+
+    private PINS(@NonNull File file) {
+        this.file = file;
+    }
+
+    public static PINS getInstance(@NonNull Context context) {
+
+        if (INSTANCE == null) {
+            synchronized (PINS.class) {
+                if (INSTANCE == null) {
+                    PINS pins = new PINS(new File(context.getFilesDir(), FILE));
+                    pins.load();
+                    INSTANCE = pins;
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                int length;
+                try {
+                    length = inputStream.readUnsignedShort();
+                } catch (EOFException eof) {
+                    break;
+                }
+                byte[] id = new byte[length];
+                inputStream.readFully(id);
+                pins.put(new PACKS.Key(id), inputStream.readInt());
+            }
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+        }
+    }
+
+    private void save() {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(temp))) {
+            for (Map.Entry<PACKS.Key, Integer> entry : pins.entrySet()) {
+                byte[] id = entry.getKey().bytes;
+                outputStream.writeShort(id.length);
+                outputStream.write(id);
+                outputStream.writeInt(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (!temp.renameTo(file)) {
+            throw new RuntimeException("can not replace " + file.getName());
+        }
+    }
+
+    public synchronized void pin(@NonNull byte[] id) {
+        PACKS.Key key = new PACKS.Key(id);
+        Integer count = pins.get(key);
+        pins.put(key, count == null ? 1 : count + 1);
+        save();
+    }
+
+    public synchronized void unpin(@NonNull byte[] id) {
+        PACKS.Key key = new PACKS.Key(id);
+        Integer count = pins.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pins.put(key, count - 1);
+        } else {
+            pins.remove(key);
+        }
+        save();
+    }
+
+    public synchronized boolean isPinned(@NonNull byte[] id) {
+        return pins.containsKey(new PACKS.Key(id));
+    }
+
+    @NonNull
+    public synchronized List<byte[]> getPins() {
+        List<byte[]> ids = new ArrayList<>();
+        for (PACKS.Key key : pins.keySet()) {
+            ids.add(key.bytes);
+        }
+        return ids;
+    }
+
+    public synchronized void clear() {
+        pins.clear();
+        save();
+    }
+}
@@ -3,16 +3,31 @@ package threads.lite.data;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.List;
+import java.util.function.Predicate;
+
 
 public interface Storage {
-    void insertBlock(@NonNull String id, @NonNull byte[] bytes);
+    void insertBlock(@NonNull byte[] id, @NonNull byte[] bytes);
+
+    void insertBlocks(@NonNull List<Block> blocks);
 
     @Nullable
-    byte[] getData(@NonNull String id);
+    byte[] getData(@NonNull byte[] id);
+
+    void deleteBlock(@NonNull byte[] id);
+
+    void deleteBlocks(@NonNull List<byte[]> ids);
+
+    int sizeBlock(@NonNull byte[] id);
+
+    boolean hasBlock(@NonNull byte[] id);
 
-    void deleteBlock(@NonNull String id);
+    // visits the ids without loading all of them until the visitor returns false,
+    // blocks may be deleted meanwhile
+    void forEachId(@NonNull Predicate<byte[]> visitor);
 
-    int sizeBlock(@NonNull String id);
+    int getCount();
 
-    boolean hasBlock(@NonNull String id);
+    void clear();
 }
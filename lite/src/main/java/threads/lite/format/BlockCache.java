@@ -0,0 +1,221 @@
+package threads.lite.format;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import threads.lite.cid.Cid;
+
+// Byte bounded LRU cache of blocks, split into lock striped shards. Internal nodes
+// (dag-pb blocks with links) and leaves have separate budgets, so streaming through
+// large files does not evict the internal nodes required for seeking.
+public class BlockCache {
+
+    private static final int SHARDS = 16; // must be a power of two
+    private static final int PB_LINKS_FIELD = 2;
+
+    @NonNull
+    private final Shard[] shards = new Shard[SHARDS];
+    @NonNull
+    private final AtomicLong hits = new AtomicLong(0);
+    @NonNull
+    private final AtomicLong misses = new AtomicLong(0);
+    @NonNull
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public BlockCache(long internalSize, long leafSize) {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(internalSize / SHARDS, leafSize / SHARDS);
+        }
+    }
+
+    // A dag-pb block with a links field is an internal node. The top level fields are
+    // scanned without decoding them, the order of the data and the links field is not
+    // fixed (the local encoder writes the data first).
+    private static boolean isInternal(@NonNull Block block) {
+        if (block.getCid().getType() != Cid.DagProtobuf) {
+            return false;
+        }
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(block.getRawData());
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == PB_LINKS_FIELD) {
+                    return true;
+                }
+                if (!input.skipField(tag)) {
+                    return false;
+                }
+            }
+        } catch (Throwable ignore) {
+            // not a valid dag-pb block, cached as leaf
+        }
+        return false;
+    }
+
+    @NonNull
+    private Shard shard(@NonNull Cid cid) {
+        return shards[cid.hashCode() & (SHARDS - 1)];
+    }
+
+    @Nullable
+    public Block get(@NonNull Cid cid) {
+        Block block = shard(cid).get(cid);
+        if (block != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return block;
+    }
+
+    @Nullable
+    public Block peek(@NonNull Cid cid) {
+        return shard(cid).get(cid);
+    }
+
+    public void put(@NonNull Block block) {
+        int evicted = shard(block.getCid()).put(block, isInternal(block));
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+        }
+    }
+
+    public void remove(@NonNull Cid cid) {
+        shard(cid).remove(cid);
+    }
+
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSize() {
+        long size = 0L;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long getInternalSize() {
+        long size = 0L;
+        for (Shard shard : shards) {
+            size += shard.internalSize();
+        }
+        return size;
+    }
+
+    public long getLeafSize() {
+        return getSize() - getInternalSize();
+    }
+
+    private static class Shard {
+        private final Segment internal;
+        private final Segment leaf;
+
+        Shard(long internalSize, long leafSize) {
+            this.internal = new Segment(internalSize);
+            this.leaf = new Segment(leafSize);
+        }
+
+        @Nullable
+        synchronized Block get(@NonNull Cid cid) {
+            Block block = internal.blocks.get(cid);
+            if (block == null) {
+                block = leaf.blocks.get(cid);
+            }
+            return block;
+        }
+
+        synchronized int put(@NonNull Block block, boolean isInternal) {
+            if (isInternal) {
+                return internal.put(block);
+            }
+            return leaf.put(block);
+        }
+
+        synchronized void remove(@NonNull Cid cid) {
+            internal.remove(cid);
+            leaf.remove(cid);
+        }
+
+        synchronized void clear() {
+            internal.clear();
+            leaf.clear();
+        }
+
+        synchronized long size() {
+            return internal.size + leaf.size;
+        }
+
+        synchronized long internalSize() {
+            return internal.size;
+        }
+    }
+
+    private static class Segment {
+        private final LinkedHashMap<Cid, Block> blocks =
+                new LinkedHashMap<>(16, 0.75f, true);
+        private final long capacity;
+        private long size = 0L;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        int put(@NonNull Block block) {
+            int length = block.getRawData().length;
+            if (length > capacity) {
+                return 0;
+            }
+            Block previous = blocks.put(block.getCid(), block);
+            if (previous != null) {
+                size -= previous.getRawData().length;
+            }
+            size += length;
+
+            int evicted = 0;
+            Iterator<Map.Entry<Cid, Block>> iterator = blocks.entrySet().iterator();
+            while (size > capacity && iterator.hasNext()) {
+                Map.Entry<Cid, Block> eldest = iterator.next();
+                size -= eldest.getValue().getRawData().length;
+                iterator.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        void remove(@NonNull Cid cid) {
+            Block block = blocks.remove(cid);
+            if (block != null) {
+                size -= block.getRawData().length;
+            }
+        }
+
+        void clear() {
+            blocks.clear();
+            size = 0L;
+        }
+    }
+}
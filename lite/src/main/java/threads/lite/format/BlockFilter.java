@@ -0,0 +1,294 @@
+package threads.lite.format;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import threads.lite.LogUtils;
+import threads.lite.data.Storage;
+
+// Counting bloom filter over the ids of a storage, with 4 bit counters (two per byte).
+// A negative answer is definite, so lookups of blocks which are not stored (the common
+// case for want-haves of a seeding node) do not touch the storage.
+// The filter is saved to a file, the file is deleted as soon as the filter is modified
+// and written again after a delay. When no valid file exists at startup the filter is
+// rebuilt in the background from the storage ids, until then it answers maybe.
+public class BlockFilter {
+
+    private static final String TAG = BlockFilter.class.getSimpleName();
+    private static final int VERSION = 1;
+    private static final int HASHES = 7;
+    private static final int MAX_COUNT = 15; // saturated counters are never decremented
+    private static final long SAVE_DELAY = 30; // seconds
+
+    @NonNull
+    private final File file;
+    private final int counters;
+    @NonNull
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+    @NonNull
+    private final AtomicLong negatives = new AtomicLong(0);
+    @NonNull
+    private final AtomicLong falsePositives = new AtomicLong(0);
+    @NonNull
+    private final AtomicLong positives = new AtomicLong(0);
+    @NonNull
+    private byte[] table;
+    // ids put while the filter is rebuilt, they are added to the rebuilt table
+    private List<byte[]> pending = null;
+    private boolean ready = false;
+    private boolean saved = false;
+    private boolean scheduled = false;
+    private long modifications = 0L;
+
+    private BlockFilter(@NonNull File file, int counters) {
+        this.file = file;
+        this.counters = counters;
+        this.table = new byte[(counters + 1) / 2];
+    }
+
+    @NonNull
+    public static BlockFilter createBlockFilter(@NonNull File file, int counters,
+                                                @NonNull Storage storage) {
+        BlockFilter filter = new BlockFilter(file, counters);
+        if (!filter.load()) {
+            filter.executor.execute(() -> filter.rebuild(storage));
+        }
+        return filter;
+    }
+
+    private static long[] hash(@NonNull byte[] id) {
+        HashCode hashCode = Hashing.murmur3_128().hashBytes(id);
+        byte[] bytes = hashCode.asBytes();
+        return new long[]{Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3],
+                bytes[4], bytes[5], bytes[6], bytes[7]),
+                Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11],
+                        bytes[12], bytes[13], bytes[14], bytes[15])};
+    }
+
+    private int index(@NonNull long[] hash, int i) {
+        long combined = hash[0] + i * hash[1];
+        return (int) ((combined & Long.MAX_VALUE) % counters);
+    }
+
+    private static int getCount(@NonNull byte[] table, int index) {
+        int value = table[index >> 1];
+        return (index & 1) == 0 ? value & 0x0F : (value >> 4) & 0x0F;
+    }
+
+    private static void setCount(@NonNull byte[] table, int index, int count) {
+        int value = table[index >> 1];
+        if ((index & 1) == 0) {
+            value = (value & 0xF0) | count;
+        } else {
+            value = (value & 0x0F) | (count << 4);
+        }
+        table[index >> 1] = (byte) value;
+    }
+
+    private void add(@NonNull byte[] table, @NonNull byte[] id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < HASHES; i++) {
+            int index = index(hash, i);
+            int count = getCount(table, index);
+            if (count < MAX_COUNT) {
+                setCount(table, index, count + 1);
+            }
+        }
+    }
+
+    private boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            int version = inputStream.readInt();
+            int size = inputStream.readInt();
+            int hashes = inputStream.readInt();
+            if (version != VERSION || size != counters || hashes != HASHES) {
+                return false;
+            }
+            inputStream.readFully(table);
+            synchronized (this) {
+                ready = true;
+                saved = true;
+            }
+            return true;
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+            Arrays.fill(table, (byte) 0);
+            return false;
+        }
+    }
+
+    private void rebuild(@NonNull Storage storage) {
+        LogUtils.info(TAG, "Rebuild block filter");
+        synchronized (this) {
+            ready = false;
+            pending = new ArrayList<>();
+        }
+        try {
+            byte[] rebuilt = new byte[table.length];
+            storage.forEachId(id -> {
+                add(rebuilt, id);
+                return true;
+            });
+            synchronized (this) {
+                // deletes during the rebuild are ignored, they only cause false positives
+                for (byte[] id : pending) {
+                    add(rebuilt, id);
+                }
+                table = rebuilt;
+                ready = true;
+                modified();
+            }
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+        } finally {
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    private void save() {
+        byte[] copy;
+        long generation;
+        synchronized (this) {
+            scheduled = false;
+            if (saved || !ready) {
+                return;
+            }
+            copy = table.clone();
+            generation = modifications;
+        }
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(temp))) {
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(counters);
+            outputStream.writeInt(HASHES);
+            outputStream.write(copy);
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            // a modification during the write schedules its own save
+            if (generation == modifications && temp.renameTo(file)) {
+                saved = true;
+            } else {
+                temp.delete();
+            }
+        }
+    }
+
+    // holds the lock
+    private void modified() {
+        modifications++;
+        if (saved) {
+            saved = false;
+            if (file.exists() && !file.delete()) {
+                LogUtils.error(TAG, "Block filter file not deleted");
+            }
+        }
+        if (!scheduled) {
+            scheduled = true;
+            executor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean mightContain(@NonNull byte[] id) {
+        long[] hash = hash(id);
+        synchronized (this) {
+            if (!ready) {
+                return true;
+            }
+            for (int i = 0; i < HASHES; i++) {
+                if (getCount(table, index(hash, i)) == 0) {
+                    negatives.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+        positives.incrementAndGet();
+        return true;
+    }
+
+    // the id must not be stored yet, otherwise it is counted twice
+    public synchronized void put(@NonNull byte[] id) {
+        if (pending != null) {
+            pending.add(id);
+        }
+        add(table, id);
+        modified();
+    }
+
+    // the id must be stored, otherwise counters of other ids are decremented
+    public synchronized void remove(@NonNull byte[] id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < HASHES; i++) {
+            int index = index(hash, i);
+            int count = getCount(table, index);
+            if (count > 0 && count < MAX_COUNT) {
+                setCount(table, index, count - 1);
+            }
+        }
+        modified();
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(table, (byte) 0);
+        if (pending != null) {
+            pending.clear();
+        }
+        modified();
+    }
+
+    // reported by the block store, when a positive answer was not confirmed by the storage
+    public void falsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public long getPositives() {
+        return positives.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    // measured rate of lookups for blocks not stored which passed the filter
+    public double getFalsePositiveRate() {
+        long falsePositive = falsePositives.get();
+        long total = falsePositive + negatives.get();
+        if (total == 0) {
+            return 0.0;
+        }
+        return (double) falsePositive / total;
+    }
+}
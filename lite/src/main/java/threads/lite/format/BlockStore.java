@@ -2,7 +2,11 @@ package threads.lite.format;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import threads.lite.cid.Cid;
 import threads.lite.data.Storage;
@@ -14,14 +18,14 @@ public interface BlockStore {
         return new BlockStore() {
             @Override
             public boolean hasBlock(@NonNull Cid cid) {
-                String key = cid.getKey();
+                byte[] key = cid.bytes();
                 return storage.hasBlock(key);
             }
 
             @Override
             public Block getBlock(@NonNull Cid cid) {
 
-                String key = cid.getKey();
+                byte[] key = cid.bytes();
                 byte[] data = storage.getData(key);
                 if (data == null) {
                     return null;
@@ -31,25 +35,250 @@ public interface BlockStore {
 
             @Override
             public void putBlock(@NonNull Block block) {
-                String key = block.getCid().getKey();
+                byte[] key = block.getCid().bytes();
                 storage.insertBlock(key, block.getRawData());
             }
 
+            @Override
+            public void putBlocks(@NonNull List<Block> blocks) {
+                List<threads.lite.data.Block> entries = new ArrayList<>();
+                for (Block block : blocks) {
+                    entries.add(threads.lite.data.Block.createBlock(
+                            block.getCid().bytes(), block.getRawData()));
+                }
+                storage.insertBlocks(entries);
+            }
+
             @Override
             public int getSize(@NonNull Cid cid) {
-                String key = cid.getKey();
+                byte[] key = cid.bytes();
                 return storage.sizeBlock(key);
             }
 
             public void deleteBlock(@NonNull Cid cid) {
-                String key = cid.getKey();
+                byte[] key = cid.bytes();
                 storage.deleteBlock(key);
             }
 
             @Override
             public void deleteBlocks(@NonNull List<Cid> cids) {
+                List<byte[]> keys = new ArrayList<>();
                 for (Cid cid : cids) {
-                    deleteBlock(cid);
+                    keys.add(cid.bytes());
+                }
+                storage.deleteBlocks(keys);
+            }
+
+        };
+    }
+
+    // Negative lookups are answered by the filter, puts and deletes keep it up to date
+    static BlockStore createFilteredBlockStore(@NonNull final BlockStore blockStore,
+                                               @NonNull final BlockFilter filter) {
+        return new BlockStore() {
+            // the check of a stored block, the update of the filter and the write
+            // or delete of the block are one step, so the counters stay exact
+            private final Object lock = new Object();
+
+            @Override
+            public boolean hasBlock(@NonNull Cid cid) {
+                if (!filter.mightContain(cid.bytes())) {
+                    return false;
+                }
+                boolean result = blockStore.hasBlock(cid);
+                if (!result) {
+                    filter.falsePositive();
+                }
+                return result;
+            }
+
+            @Override
+            public Block getBlock(@NonNull Cid cid) {
+                if (!filter.mightContain(cid.bytes())) {
+                    return null;
+                }
+                Block block = blockStore.getBlock(cid);
+                if (block == null) {
+                    filter.falsePositive();
+                }
+                return block;
+            }
+
+            @Override
+            public void putBlock(@NonNull Block block) {
+                byte[] key = block.getCid().bytes();
+                synchronized (lock) {
+                    // only probably existing blocks are checked, to not count them twice
+                    boolean exists = filter.mightContain(key) &&
+                            blockStore.hasBlock(block.getCid());
+                    // the filter is updated first, it must never miss a stored block
+                    if (!exists) {
+                        filter.put(key);
+                    }
+                    blockStore.putBlock(block);
+                }
+            }
+
+            @Override
+            public void putBlocks(@NonNull List<Block> blocks) {
+                synchronized (lock) {
+                    Set<Cid> added = new HashSet<>();
+                    for (Block block : blocks) {
+                        byte[] key = block.getCid().bytes();
+                        if (!filter.mightContain(key) || !blockStore.hasBlock(block.getCid())) {
+                            // a block contained twice in the list is counted once
+                            if (added.add(block.getCid())) {
+                                filter.put(key);
+                            }
+                        }
+                    }
+                    blockStore.putBlocks(blocks);
+                }
+            }
+
+            @Override
+            public int getSize(@NonNull Cid cid) {
+                if (!filter.mightContain(cid.bytes())) {
+                    return 0;
+                }
+                int size = blockStore.getSize(cid);
+                if (size <= 0) {
+                    filter.falsePositive();
+                }
+                return size;
+            }
+
+            @Override
+            public void deleteBlock(@NonNull Cid cid) {
+                // serialized, a block deleted twice would decrement the counters twice
+                synchronized (lock) {
+                    if (blockStore.hasBlock(cid)) {
+                        blockStore.deleteBlock(cid);
+                        filter.remove(cid.bytes());
+                    }
+                }
+            }
+
+            @Override
+            public void deleteBlocks(@NonNull List<Cid> cids) {
+                synchronized (lock) {
+                    List<Cid> stored = new ArrayList<>();
+                    for (Cid cid : cids) {
+                        if (blockStore.hasBlock(cid)) {
+                            stored.add(cid);
+                        }
+                    }
+                    blockStore.deleteBlocks(stored);
+                    for (Cid cid : stored) {
+                        filter.remove(cid.bytes());
+                    }
+                }
+            }
+
+        };
+    }
+
+    // Stored blocks are reported to the listener, e.g. to protect them from a garbage
+    // collection which is running or started before they are pinned
+    static BlockStore createTrackedBlockStore(@NonNull final BlockStore blockStore,
+                                              @NonNull final Consumer<Cid> stored) {
+        return new BlockStore() {
+            @Override
+            public boolean hasBlock(@NonNull Cid cid) {
+                return blockStore.hasBlock(cid);
+            }
+
+            @Override
+            public Block getBlock(@NonNull Cid cid) {
+                return blockStore.getBlock(cid);
+            }
+
+            @Override
+            public void putBlock(@NonNull Block block) {
+                stored.accept(block.getCid());
+                blockStore.putBlock(block);
+            }
+
+            @Override
+            public void putBlocks(@NonNull List<Block> blocks) {
+                for (Block block : blocks) {
+                    stored.accept(block.getCid());
+                }
+                blockStore.putBlocks(blocks);
+            }
+
+            @Override
+            public int getSize(@NonNull Cid cid) {
+                return blockStore.getSize(cid);
+            }
+
+            @Override
+            public void deleteBlock(@NonNull Cid cid) {
+                blockStore.deleteBlock(cid);
+            }
+
+            @Override
+            public void deleteBlocks(@NonNull List<Cid> cids) {
+                blockStore.deleteBlocks(cids);
+            }
+
+        };
+    }
+
+    static BlockStore createCachedBlockStore(@NonNull final BlockStore blockStore,
+                                             @NonNull final BlockCache cache) {
+        return new BlockStore() {
+            @Override
+            public boolean hasBlock(@NonNull Cid cid) {
+                if (cache.peek(cid) != null) {
+                    return true;
+                }
+                return blockStore.hasBlock(cid);
+            }
+
+            @Override
+            public Block getBlock(@NonNull Cid cid) {
+                Block block = cache.get(cid);
+                if (block != null) {
+                    return block;
+                }
+                block = blockStore.getBlock(cid);
+                if (block != null) {
+                    cache.put(block);
+                }
+                return block;
+            }
+
+            @Override
+            public void putBlock(@NonNull Block block) {
+                blockStore.putBlock(block);
+            }
+
+            @Override
+            public void putBlocks(@NonNull List<Block> blocks) {
+                blockStore.putBlocks(blocks);
+            }
+
+            @Override
+            public int getSize(@NonNull Cid cid) {
+                Block block = cache.peek(cid);
+                if (block != null) {
+                    return block.getRawData().length;
+                }
+                return blockStore.getSize(cid);
+            }
+
+            @Override
+            public void deleteBlock(@NonNull Cid cid) {
+                blockStore.deleteBlock(cid);
+                cache.remove(cid);
+            }
+
+            @Override
+            public void deleteBlocks(@NonNull List<Cid> cids) {
+                blockStore.deleteBlocks(cids);
+                for (Cid cid : cids) {
+                    cache.remove(cid);
                 }
             }
 
@@ -66,6 +295,8 @@ public interface BlockStore {
 
     void putBlock(@NonNull Block block);
 
+    void putBlocks(@NonNull List<Block> blocks);
+
     int getSize(@NonNull Cid cid);
 }
 
@@ -0,0 +1,106 @@
+package threads.lite.format;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import threads.lite.cid.Cid;
+
+// Write-behind buffer for a block store, put blocks are collected and stored with
+// a single putBlocks call once the block or byte limit is reached, or on flush.
+// Buffered blocks are visible to all read operations.
+public class BufferedBlockStore implements BlockStore {
+
+    @NonNull
+    private final BlockStore blockStore;
+    @NonNull
+    private final LinkedHashMap<Cid, Block> buffer = new LinkedHashMap<>();
+    private final int maxBlocks;
+    private final long maxBytes;
+    private long bytes = 0L;
+
+    public BufferedBlockStore(@NonNull BlockStore blockStore, int maxBlocks, long maxBytes) {
+        this.blockStore = blockStore;
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<Block> blocks = new ArrayList<>(buffer.values());
+        blockStore.putBlocks(blocks);
+        buffer.clear();
+        bytes = 0L;
+    }
+
+    @Override
+    public synchronized boolean hasBlock(@NonNull Cid cid) {
+        if (buffer.containsKey(cid)) {
+            return true;
+        }
+        return blockStore.hasBlock(cid);
+    }
+
+    @Override
+    public synchronized Block getBlock(@NonNull Cid cid) {
+        Block block = buffer.get(cid);
+        if (block != null) {
+            return block;
+        }
+        return blockStore.getBlock(cid);
+    }
+
+    @Override
+    public synchronized void deleteBlock(@NonNull Cid cid) {
+        Block block = buffer.remove(cid);
+        if (block != null) {
+            bytes -= block.getRawData().length;
+        }
+        blockStore.deleteBlock(cid);
+    }
+
+    @Override
+    public synchronized void deleteBlocks(@NonNull List<Cid> cids) {
+        for (Cid cid : cids) {
+            Block block = buffer.remove(cid);
+            if (block != null) {
+                bytes -= block.getRawData().length;
+            }
+        }
+        blockStore.deleteBlocks(cids);
+    }
+
+    @Override
+    public synchronized void putBlock(@NonNull Block block) {
+        // nodes are mutable, the encoded state at the time of the put is buffered
+        byte[] data = block.getRawData();
+        Block previous = buffer.put(block.getCid(),
+                BasicBlock.createBlockWithCid(block.getCid(), data));
+        if (previous == null) {
+            bytes += data.length;
+        }
+        if (buffer.size() >= maxBlocks || bytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void putBlocks(@NonNull List<Block> blocks) {
+        for (Block block : blocks) {
+            putBlock(block);
+        }
+    }
+
+    @Override
+    public synchronized int getSize(@NonNull Cid cid) {
+        Block block = buffer.get(cid);
+        if (block != null) {
+            return block.getRawData().length;
+        }
+        return blockStore.getSize(cid);
+    }
+}
@@ -6,9 +6,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -24,7 +25,8 @@ public class ProtoNode implements Node {
     private static final String TAG = ProtoNode.class.getSimpleName();
     private final List<Link> links = Collections.synchronizedList(new ArrayList<>());
     public Cid cached;
-    private byte[] data;
+    // the data is not copied, it is a slice of the encoded node or wraps the given bytes
+    private ByteString data;
     private byte[] encoded;
     private Builder builder;
 
@@ -32,7 +34,7 @@ public class ProtoNode implements Node {
     }
 
     public ProtoNode(@NonNull byte[] data) {
-        this.data = data;
+        this.data = UnsafeByteOperations.unsafeWrap(data);
     }
 
     @Override
@@ -62,7 +64,10 @@ public class ProtoNode implements Node {
 
         try {
 
-            Merkledag.PBNode pbNode = Merkledag.PBNode.parseFrom(encoded);
+            // the bytes fields of the parsed node are slices of the encoded data
+            CodedInputStream input = UnsafeByteOperations.unsafeWrap(encoded).newCodedInput();
+            input.enableAliasing(true);
+            Merkledag.PBNode pbNode = Merkledag.PBNode.parseFrom(input);
             List<Merkledag.PBLink> pbLinks = pbNode.getLinksList();
             for (Merkledag.PBLink pbLink : pbLinks) {
                 links.add(Link.create(pbLink.getHash().toByteArray(), pbLink.getName(),
@@ -71,7 +76,7 @@ public class ProtoNode implements Node {
 
             links.sort(Comparator.comparing(Link::getName));
 
-            this.data = pbNode.getData().toByteArray();
+            this.data = pbNode.getData();
 
             this.encoded = encoded;
 
@@ -111,13 +116,20 @@ public class ProtoNode implements Node {
 
     @Override
     public byte[] getData() {
+        if (data == null) {
+            return null;
+        }
+        return data.toByteArray();
+    }
+
+    public ByteString getDataString() {
         return data;
     }
 
     public void setData(byte[] fileData) {
         encoded = null;
         cached = Cid.Undef();
-        data = fileData;
+        data = UnsafeByteOperations.unsafeWrap(fileData);
     }
 
     @Override
@@ -141,15 +153,14 @@ public class ProtoNode implements Node {
                         .setTsize(link.getSize());
 
                 if (link.getCid().isDefined()) {
-                    ByteString hash = ByteString.copyFrom(link.getCid().bytes());
-                    lnb.setHash(hash);
+                    lnb.setHash(UnsafeByteOperations.unsafeWrap(link.getCid().bytes()));
                 }
 
                 pbn.addLinks(lnb.build());
             }
         }
-        if (this.data.length > 0) {
-            pbn.setData(ByteString.copyFrom(this.data));
+        if (!this.data.isEmpty()) {
+            pbn.setData(this.data);
         }
 
         return pbn.build().toByteArray();
@@ -194,7 +205,7 @@ public class ProtoNode implements Node {
 
         ProtoNode protoNode = new ProtoNode();
 
-        protoNode.data = Arrays.copyOf(getData(), getData().length);
+        protoNode.data = data; // immutable
 
 
         synchronized (links) {
@@ -231,7 +242,7 @@ public class ProtoNode implements Node {
 
     }
 
-    private void addRawLink(@NonNull Link link) {
+    public void addRawLink(@NonNull Link link) {
         encoded = null;
 
         synchronized (links) {
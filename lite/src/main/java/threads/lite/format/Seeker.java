@@ -13,6 +13,12 @@ import threads.lite.dag.FSNode;
 
 public class Seeker {
     private static final String TAG = Seeker.class.getSimpleName();
+    private long size = 0L;
+
+    // size of the data below the cid returned by the last next call
+    public long getSize() {
+        return size;
+    }
 
     @Nullable
     public Cid next(@NonNull Closeable closeable, @NonNull Stack<Stage> stack) throws ClosedException {
@@ -61,6 +67,7 @@ public class Seeker {
 
                     return next(closeable, stack);
                 }
+                size = childSize;
                 return visitedNode.getChild(index);
             } else {
                 stack.pop();
@@ -0,0 +1,208 @@
+package threads.lite.host;
+
+import androidx.annotation.NonNull;
+
+import net.luminis.quic.QuicClientConnectionImpl;
+import net.luminis.quic.QuicConnection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import threads.lite.IPFS;
+import threads.lite.LogUtils;
+import threads.lite.cid.PeerId;
+import threads.lite.relay.RelayConnection;
+
+// Keeps the number of the connections of the host between the low and the high water
+// mark. Every client connection owns a socket and a sender and a receiver thread, so
+// they are not kept forever. When there are more than high water connections, the
+// least recently used ones are closed until low water connections remain. Connections
+// which are idle longer than CONNECTION_IDLE_TIMEOUT are closed in any case.
+// Protected peers (relays, swarm peers), the relays of kept relayed connections and
+// connections which were used within the grace period are never closed.
+public class ConnectionManager {
+
+    public static final String RELAY = "relay";
+    public static final String SWARM = "swarm";
+    private static final String TAG = ConnectionManager.class.getSimpleName();
+
+    @NonNull
+    private final ConcurrentHashMap<PeerId, QuicConnection> connections;
+    @NonNull
+    private final ConcurrentHashMap<QuicConnection, Long> activity = new ConcurrentHashMap<>();
+    @NonNull
+    private final ConcurrentHashMap<PeerId, Set<String>> protections = new ConcurrentHashMap<>();
+    @NonNull
+    private final Consumer<QuicConnection> closed;
+    @NonNull
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    @NonNull
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    @NonNull
+    private final AtomicLong trimmed = new AtomicLong(0);
+    private final int lowWater;
+    private final int highWater;
+
+    public ConnectionManager(@NonNull ConcurrentHashMap<PeerId, QuicConnection> connections,
+                             @NonNull Consumer<QuicConnection> closed,
+                             int lowWater, int highWater) {
+        this.connections = connections;
+        this.closed = closed;
+        this.lowWater = lowWater;
+        this.highWater = Math.max(lowWater, highWater);
+        timer.scheduleWithFixedDelay(this::trim, IPFS.CONNECTION_TRIM_INTERVAL,
+                IPFS.CONNECTION_TRIM_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public void connected(@NonNull QuicConnection conn) {
+        touch(conn);
+        if (connections.size() > highWater && scheduled.compareAndSet(false, true)) {
+            timer.execute(() -> {
+                scheduled.set(false);
+                trim();
+            });
+        }
+    }
+
+    public void touch(@NonNull QuicConnection conn) {
+        activity.put(conn, System.currentTimeMillis());
+    }
+
+    public void protect(@NonNull PeerId peerId, @NonNull String tag) {
+        protections.computeIfAbsent(peerId, key -> ConcurrentHashMap.newKeySet()).add(tag);
+    }
+
+    public void unprotect(@NonNull PeerId peerId, @NonNull String tag) {
+        protections.computeIfPresent(peerId, (key, tags) -> {
+            tags.remove(tag);
+            return tags.isEmpty() ? null : tags;
+        });
+    }
+
+    public boolean isProtected(@NonNull PeerId peerId) {
+        return protections.containsKey(peerId);
+    }
+
+    public synchronized void trim() {
+        try {
+            long now = System.currentTimeMillis();
+            // a relay is kept as long as a kept connection is relayed by it
+            Set<QuicConnection> relaying = new HashSet<>();
+            for (QuicConnection conn : connections.values()) {
+                if (conn instanceof RelayConnection) {
+                    relaying.add(((RelayConnection) conn).getRelay());
+                }
+            }
+            List<Map.Entry<PeerId, QuicConnection>> candidates = new ArrayList<>();
+            for (Map.Entry<PeerId, QuicConnection> entry : connections.entrySet()) {
+                QuicConnection conn = entry.getValue();
+                if (!conn.isConnected()) {
+                    close(entry.getKey(), conn);
+                    continue;
+                }
+                if (isProtected(entry.getKey()) || relaying.contains(conn)) {
+                    continue;
+                }
+                long idle = now - lastUsed(conn, now);
+                if (idle < IPFS.CONNECTION_GRACE_PERIOD) {
+                    continue;
+                }
+                if (idle > IPFS.CONNECTION_IDLE_TIMEOUT) {
+                    close(entry.getKey(), conn);
+                    continue;
+                }
+                candidates.add(entry);
+            }
+
+            if (connections.size() > highWater) {
+                int excess = connections.size() - lowWater;
+                candidates.sort((o1, o2) -> Long.compare(
+                        lastUsed(o1.getValue(), now), lastUsed(o2.getValue(), now)));
+                for (int i = 0; i < candidates.size() && excess > 0; i++, excess--) {
+                    close(candidates.get(i).getKey(), candidates.get(i).getValue());
+                }
+            }
+
+            // activity of connections which are not kept by the host anymore
+            Set<QuicConnection> kept = new HashSet<>(connections.values());
+            activity.keySet().retainAll(kept);
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+        }
+    }
+
+    private long lastUsed(@NonNull QuicConnection conn, long now) {
+        Long time = activity.get(conn);
+        return time != null ? time : now;
+    }
+
+    private void close(@NonNull PeerId peerId, @NonNull QuicConnection conn) {
+        if (connections.remove(peerId, conn)) {
+            LogUtils.debug(TAG, "Trim connection " + peerId.toBase58());
+            activity.remove(conn);
+            trimmed.incrementAndGet();
+            try {
+                conn.close();
+            } catch (Throwable throwable) {
+                LogUtils.error(TAG, throwable);
+            }
+            closed.accept(conn);
+        }
+    }
+
+    @NonNull
+    public Stats getStats() {
+        int open = 0;
+        int sockets = 0;
+        for (QuicConnection conn : connections.values()) {
+            if (conn.isConnected()) {
+                open++;
+                // a relayed connection uses the socket of its relay
+                if (conn instanceof QuicClientConnectionImpl) {
+                    sockets++;
+                }
+            }
+        }
+        return new Stats(open, sockets, protections.size(), trimmed.get(),
+                Thread.activeCount());
+    }
+
+    public static class Stats {
+        public final int connections;
+        // each client connection owns a socket, a sender and a receiver thread
+        public final int sockets;
+        public final int protectedPeers;
+        public final long trimmed;
+        public final int threads;
+
+        Stats(int connections, int sockets, int protectedPeers, long trimmed, int threads) {
+            this.connections = connections;
+            this.sockets = sockets;
+            this.protectedPeers = protectedPeers;
+            this.trimmed = trimmed;
+            this.threads = threads;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "connections=" + connections +
+                    ", sockets=" + sockets +
+                    ", protectedPeers=" + protectedPeers +
+                    ", trimmed=" + trimmed +
+                    ", threads=" + threads +
+                    '}';
+        }
+    }
+}
@@ -14,11 +14,19 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
+import threads.lite.IPFS;
 import threads.lite.LogUtils;
 import threads.lite.cid.Multiaddr;
 import threads.lite.cid.Protocol;
@@ -34,6 +42,12 @@ public class DnsResolver {
     private static final String DNS4_PATH = "/dns4/";
     private static final String DNS6_PATH = "/dns6/";
     private static final String TAG = DnsResolver.class.getSimpleName();
+    private static final String TXT_KEY = "txt:";
+    private static final String HOST_KEY = "host:";
+    private static final ExecutorService RESOLVER = Executors.newCachedThreadPool();
+    private static final ConcurrentHashMap<String, CompletableFuture<Lookup>> LOOKUPS =
+            new ConcurrentHashMap<>();
+    private static final Set<String> REFRESHING = ConcurrentHashMap.newKeySet();
     private static DnsClient INSTANCE = null;
 
 
@@ -55,7 +69,13 @@ public class DnsResolver {
 
     @NonNull
     private static List<String> getTxtRecords(@NonNull String host) {
+        return lookup(TXT_KEY.concat(host), () -> queryTxtRecords(host));
+    }
+
+    @NonNull
+    private static Lookup queryTxtRecords(@NonNull String host) {
         List<String> txtRecords = new ArrayList<>();
+        long ttl = Long.MAX_VALUE;
         try {
             DnsClient client = getInstance();
             DnsQueryResult result = client.query(host, Record.TYPE.TXT);
@@ -66,6 +86,7 @@ public class DnsResolver {
                 if (payload instanceof TXT) {
                     TXT text = (TXT) payload;
                     txtRecords.add(text.getText());
+                    ttl = Math.min(ttl, record.ttl * 1000);
                 } else {
                     LogUtils.warning(TAG, payload.toString());
                 }
@@ -73,59 +94,125 @@ public class DnsResolver {
         } catch (Throwable throwable) {
             LogUtils.debug(TAG, "" + throwable.getClass().getName());
         }
-        return txtRecords;
+        return Lookup.create(txtRecords, ttl);
     }
 
+    // the host of the multiaddress is replaced by its ip address
     @NonNull
-    public static String resolveDns(@NonNull String multiaddress) throws UnknownHostException {
-        if (!multiaddress.startsWith(DNS_PATH)) {
+    private static String resolveHost(@NonNull String multiaddress, @NonNull String path)
+            throws UnknownHostException {
+        if (!multiaddress.startsWith(path)) {
             throw new RuntimeException();
         }
-        String query = multiaddress.replaceFirst(DNS_PATH, "");
+        String query = multiaddress.replaceFirst(path, "");
         String host = query.split("/")[0];
-        InetAddress address = InetAddress.getByName(host);
-        String ip = IPv4;
-        if (address instanceof Inet6Address) {
-            ip = IPv6;
+        List<String> addresses = lookup(HOST_KEY.concat(host), () -> queryHost(host));
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(host);
         }
-        String hostAddress = address.getHostAddress();
-        Objects.requireNonNull(hostAddress);
-        return ip.concat(query.replaceFirst(host, hostAddress));
+        return addresses.get(0).concat(query.substring(host.length()));
     }
 
+    // the system resolver does not tell the ttl of the address, DNS_CACHE_TTL is used
     @NonNull
-    public static String resolveDns4Address(@NonNull String multiaddress) throws UnknownHostException {
-        if (!multiaddress.startsWith(DNS4_PATH)) {
-            throw new RuntimeException();
+    private static Lookup queryHost(@NonNull String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            String ip = IPv4;
+            if (address instanceof Inet6Address) {
+                ip = IPv6;
+            }
+            String hostAddress = address.getHostAddress();
+            Objects.requireNonNull(hostAddress);
+            return Lookup.create(Collections.singletonList(ip.concat(hostAddress)),
+                    IPFS.DNS_CACHE_TTL);
+        } catch (Throwable throwable) {
+            LogUtils.debug(TAG, host + " " + throwable.getClass().getName());
         }
-        String query = multiaddress.replaceFirst(DNS4_PATH, "");
-        String host = query.split("/")[0];
-        InetAddress address = InetAddress.getByName(host);
-        String ip = IPv4;
-        if (address instanceof Inet6Address) {
-            ip = IPv6;
+        return Lookup.create(Collections.emptyList(), 0);
+    }
+
+    // The answer of a query is cached until the ttl of its records expires, an empty
+    // answer for DNS_NEGATIVE_TTL. Concurrent lookups of the same query wait for the one
+    // pending query. An expired answer is still returned while it is refreshed in the
+    // background, so only the first lookup of a name waits for the network.
+    @NonNull
+    private static List<String> lookup(@NonNull String key, @NonNull Supplier<Lookup> query) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Lookup> future = LOOKUPS.get(key);
+        if (future != null && future.isDone()) {
+            Lookup lookup = future.join();
+            if (lookup.expires > now) {
+                return lookup.values;
+            }
+            if (lookup.usable > now) {
+                refresh(key, lookup, query);
+                return lookup.values;
+            }
+            LOOKUPS.remove(key, future);
+        }
+        if (LOOKUPS.size() > IPFS.DNS_CACHE_SIZE) {
+            purge(now);
+        }
+        future = LOOKUPS.computeIfAbsent(key, k ->
+                CompletableFuture.supplyAsync(query, RESOLVER));
+        try {
+            return future.get().values;
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+        }
+        return Collections.emptyList();
+    }
+
+    private static void refresh(@NonNull String key, @NonNull Lookup stale,
+                                @NonNull Supplier<Lookup> query) {
+        if (!REFRESHING.add(key)) {
+            return;
+        }
+        RESOLVER.execute(() -> {
+            try {
+                Lookup lookup = query.get();
+                if (lookup.values.isEmpty()) {
+                    // the name is not resolvable right now, the stale answer is kept
+                    lookup = new Lookup(stale.values,
+                            System.currentTimeMillis() + IPFS.DNS_NEGATIVE_TTL, stale.usable);
+                }
+                LOOKUPS.put(key, CompletableFuture.completedFuture(lookup));
+            } catch (Throwable throwable) {
+                LogUtils.error(TAG, throwable);
+            } finally {
+                REFRESHING.remove(key);
+            }
+        });
+    }
+
+    private static void purge(long now) {
+        for (Map.Entry<String, CompletableFuture<Lookup>> entry : LOOKUPS.entrySet()) {
+            CompletableFuture<Lookup> future = entry.getValue();
+            if (future.isDone() && future.join().usable <= now) {
+                LOOKUPS.remove(entry.getKey(), future);
+            }
         }
-        String hostAddress = address.getHostAddress();
-        Objects.requireNonNull(hostAddress);
-        return ip.concat(query.replaceFirst(host, hostAddress));
+    }
+
+    public static void clearCache() {
+        LOOKUPS.clear();
+    }
+
+    @NonNull
+    public static String resolveDns(@NonNull String multiaddress) throws UnknownHostException {
+        return resolveHost(multiaddress, DNS_PATH);
+    }
+
+    @NonNull
+    public static String resolveDns4Address(@NonNull String multiaddress) throws UnknownHostException {
+        return resolveHost(multiaddress, DNS4_PATH);
     }
 
 
     @NonNull
     public static String resolveDns6Address(@NonNull String multiaddress) throws UnknownHostException {
-        if (!multiaddress.startsWith(DNS6_PATH)) {
-            throw new RuntimeException();
-        }
-        String query = multiaddress.replaceFirst(DNS6_PATH, "");
-        String host = query.split("/")[0];
-        InetAddress address = InetAddress.getByName(host);
-        String ip = IPv4;
-        if (address instanceof Inet6Address) {
-            ip = IPv6;
-        }
-        String hostAddress = address.getHostAddress();
-        Objects.requireNonNull(hostAddress);
-        return ip.concat(query.replaceFirst(host, hostAddress));
+        return resolveHost(multiaddress, DNS6_PATH);
     }
 
     @NonNull
@@ -143,6 +230,39 @@ public class DnsResolver {
         return new Multiaddr(resolveDns(multiaddr.toString()));
     }
 
+    public static boolean isDns(@NonNull Multiaddr multiaddr) {
+        return multiaddr.has(Protocol.Type.DNS) || multiaddr.has(Protocol.Type.DNS4)
+                || multiaddr.has(Protocol.Type.DNS6) || multiaddr.has(Protocol.Type.DNSADDR);
+    }
+
+    // the ip addresses of a dns multiaddr, other multiaddrs are returned as they are
+    @NonNull
+    public static List<Multiaddr> resolve(@NonNull Multiaddr multiaddr)
+            throws UnknownHostException {
+        if (multiaddr.has(Protocol.Type.DNS)) {
+            return Collections.singletonList(resolveDns(multiaddr));
+        } else if (multiaddr.has(Protocol.Type.DNS6)) {
+            return Collections.singletonList(resolveDns6(multiaddr));
+        } else if (multiaddr.has(Protocol.Type.DNS4)) {
+            return Collections.singletonList(resolveDns4(multiaddr));
+        } else if (multiaddr.has(Protocol.Type.DNSADDR)) {
+            return resolveDnsAddress(multiaddr);
+        }
+        return Collections.singletonList(multiaddr);
+    }
+
+    @NonNull
+    public static CompletableFuture<List<Multiaddr>> resolveAsync(@NonNull Multiaddr multiaddr) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return resolve(multiaddr);
+            } catch (Throwable throwable) {
+                LogUtils.debug(TAG, multiaddr.toString() + " " + throwable);
+            }
+            return Collections.<Multiaddr>emptyList();
+        }, RESOLVER);
+    }
+
     @NonNull
     public static List<Multiaddr> resolveDnsAddress(@NonNull Multiaddr multiaddr) {
         List<Multiaddr> multiaddrs = new ArrayList<>();
@@ -221,4 +341,29 @@ public class DnsResolver {
         return INSTANCE;
     }
 
+    private static class Lookup {
+        @NonNull
+        final List<String> values;
+        final long expires;
+        // an expired answer is returned until then, while it is refreshed
+        final long usable;
+
+        Lookup(@NonNull List<String> values, long expires, long usable) {
+            this.values = values;
+            this.expires = expires;
+            this.usable = usable;
+        }
+
+        @NonNull
+        static Lookup create(@NonNull List<String> values, long ttl) {
+            long now = System.currentTimeMillis();
+            if (values.isEmpty()) {
+                return new Lookup(Collections.emptyList(), now + IPFS.DNS_NEGATIVE_TTL,
+                        now + IPFS.DNS_NEGATIVE_TTL);
+            }
+            long expires = now + Math.max(ttl, IPFS.DNS_MIN_TTL);
+            return new Lookup(Collections.unmodifiableList(values), expires,
+                    expires + IPFS.DNS_MAX_STALE);
+        }
+    }
 }
@@ -3,6 +3,7 @@ package threads.lite.host;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Bytes;
 import com.google.protobuf.ByteString;
 
@@ -35,13 +36,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bitswap.pb.MessageOuterClass;
 import identify.pb.IdentifyOuterClass;
@@ -69,6 +75,8 @@ public class LiteHost {
     @NonNull
     private static final ExecutorService executors = Executors.newFixedThreadPool(2);
     @NonNull
+    private static final ExecutorService dialers = Executors.newCachedThreadPool();
+    @NonNull
     private static final String TAG = LiteHost.class.getSimpleName();
     @NonNull
     private static final Duration DefaultRecordEOL = Duration.ofHours(24);
@@ -116,8 +124,8 @@ public class LiteHost {
             return new X509Certificate[0];
         }
     };*/
-    private static int failure = 0;
-    private static int success = 0;
+    private static final AtomicInteger failure = new AtomicInteger(0);
+    private static final AtomicInteger success = new AtomicInteger(0);
     @NonNull
     public final List<ConnectionHandler> handlers = new ArrayList<>();
     @NonNull
@@ -132,13 +140,15 @@ public class LiteHost {
             Comparator.comparing(InetAddress::getHostAddress)
     );
     @NonNull
-    private final ConcurrentHashMap<PeerId, Set<Multiaddr>> addressBook = new ConcurrentHashMap<>();
+    private final PeerStore peerStore;
     @NonNull
     private final Routing routing;
     @NonNull
     private final PrivKey privKey;
     @NonNull
     private final BitSwap bitSwap;
+    @NonNull
+    private final ConnectionManager connectionManager;
     private final int port;
     @NonNull
     private final LiteHostCertificate selfSignedCertificate;
@@ -152,15 +162,19 @@ public class LiteHost {
     public LiteHost(@NonNull LiteHostCertificate selfSignedCertificate,
                     @NonNull PrivKey privKey,
                     @NonNull BlockStore blockstore,
-                    int alpha) {
+                    @NonNull PeerStore peerStore,
+                    int alpha, int lowWater, int highWater) {
         this.selfSignedCertificate = selfSignedCertificate;
         this.privKey = privKey;
+        this.peerStore = peerStore;
 
 
         this.routing = new KadDht(this,
                 new Ipns(), alpha, IPFS.DHT_BUCKET_SIZE);
 
         this.bitSwap = new BitSwap(blockstore, this);
+        this.connectionManager = new ConnectionManager(connections, bitSwap::peerClosed,
+                lowWater, highWater);
         int port = IPFS.DEFAULT_PORT;
         if (!isLocalPortFree(port)) {
             port = nextFreePort();
@@ -226,6 +240,11 @@ public class LiteHost {
         return bitSwap;
     }
 
+    @NonNull
+    public ConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
     public PeerId self() {
         return PeerId.fromPubKey(privKey.publicKey());
     }
@@ -234,10 +253,9 @@ public class LiteHost {
         handlers.add(connectionHandler);
     }
 
-    @Nullable
-    public BitSwapMessage message(@NonNull QuicStream quicStream, @NonNull MessageOuterClass.Message msg) {
+    public void message(@NonNull QuicStream quicStream, @NonNull MessageOuterClass.Message msg) {
         BitSwapMessage message = BitSwapMessage.newMessageFromProto(msg);
-        return bitSwap.receiveMessage(quicStream, message);
+        bitSwap.receiveMessage(quicStream, message);
     }
 
     public void findProviders(@NonNull Closeable closeable, @NonNull Routing.Providers providers,
@@ -246,45 +264,44 @@ public class LiteHost {
     }
 
     public boolean hasAddresses(@NonNull PeerId peerId) {
-        Set<Multiaddr> res = addressBook.get(peerId);
-        if (res == null) {
-            return false;
-        }
-        return !res.isEmpty();
+        return peerStore.hasAddresses(peerId);
     }
 
 
     @NonNull
     public Set<Multiaddr> getAddresses(@NonNull PeerId peerId) {
         try {
-            Collection<Multiaddr> multiaddrs = addressBook.get(peerId);
-            if (multiaddrs != null) {
-                return new HashSet<>(multiaddrs);
-            }
+            return new HashSet<>(peerStore.getAddresses(peerId));
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
         return Collections.emptySet();
     }
 
+    @NonNull
+    public PeerStore getPeerStore() {
+        return peerStore;
+    }
+
+    // the historically best addresses first
     @NonNull
     private List<Multiaddr> prepareAddresses(@NonNull PeerId peerId) {
+        // the dns addresses are resolved in parallel, cached names do not wait at all
+        List<CompletableFuture<List<Multiaddr>>> resolved = new ArrayList<>();
+        for (Multiaddr ma : peerStore.getAddresses(peerId)) {
+            if (DnsResolver.isDns(ma)) {
+                resolved.add(DnsResolver.resolveAsync(ma));
+            } else {
+                resolved.add(CompletableFuture.completedFuture(
+                        Collections.singletonList(ma)));
+            }
+        }
         List<Multiaddr> all = new ArrayList<>();
-        for (Multiaddr ma : getAddresses(peerId)) {
+        for (CompletableFuture<List<Multiaddr>> future : resolved) {
             try {
-                if (ma.has(Protocol.Type.DNS)) {
-                    all.add(DnsResolver.resolveDns(ma));
-                } else if (ma.has(Protocol.Type.DNS6)) {
-                    all.add(DnsResolver.resolveDns6(ma));
-                } else if (ma.has(Protocol.Type.DNS4)) {
-                    all.add(DnsResolver.resolveDns4(ma));
-                } else if (ma.has(Protocol.Type.DNSADDR)) {
-                    all.addAll(DnsResolver.resolveDnsAddress(ma));
-                } else {
-                    all.add(ma);
-                }
+                all.addAll(future.get());
             } catch (Throwable throwable) {
-                LogUtils.error(TAG, ma.toString() + " prepareAddresses " + throwable);
+                LogUtils.error(TAG, "prepareAddresses " + throwable);
             }
         }
         List<Multiaddr> result = new ArrayList<>();
@@ -293,6 +310,8 @@ public class LiteHost {
                 result.add(ma);
             }
         }
+        // resolved addresses which connected before are ranked by their own history
+        peerStore.sort(peerId, result);
         return result;
     }
 
@@ -326,6 +345,7 @@ public class LiteHost {
 
     public void swarmReduce(@NonNull PeerId peerId) {
         swarm.remove(peerId);
+        connectionManager.unprotect(peerId, ConnectionManager.SWARM);
     }
 
     private boolean isSupported(@NonNull Multiaddr address, boolean acceptLocal) {
@@ -345,7 +365,8 @@ public class LiteHost {
 
 
         try {
-            InetAddress inetAddress = InetAddress.getByName(address.getHost());
+            // only parses the ip address, no dns lookup
+            InetAddress inetAddress = InetAddresses.forString(address.getHost());
             if (inetAddress.isAnyLocalAddress() || inetAddress.isLinkLocalAddress()
                     || (!acceptLocal && inetAddress.isLoopbackAddress())
                     || (!acceptLocal && inetAddress.isSiteLocalAddress())) {
@@ -364,14 +385,13 @@ public class LiteHost {
                                  boolean acceptSiteLocal) {
 
         try {
-            synchronized (peerId.toBase58().intern()) {
-                Set<Multiaddr> info = addressBook.computeIfAbsent(peerId, k -> new HashSet<>());
-                for (Multiaddr ma : addresses) {
-                    if (isSupported(ma, acceptSiteLocal)) {
-                        info.add(ma);
-                    }
+            List<Multiaddr> supported = new ArrayList<>();
+            for (Multiaddr ma : addresses) {
+                if (isSupported(ma, acceptSiteLocal)) {
+                    supported.add(ma);
                 }
             }
+            peerStore.addAddresses(peerId, supported, IPFS.PEER_STORE_ADDRESS_TTL);
         } catch (Throwable throwable) {
             LogUtils.error(TAG, throwable);
         }
@@ -394,6 +414,7 @@ public class LiteHost {
 
     public void swarmEnhance(@NonNull PeerId peerId) {
         swarm.add(peerId);
+        connectionManager.protect(peerId, ConnectionManager.SWARM);
     }
 
     @NonNull
@@ -542,6 +563,7 @@ public class LiteHost {
             QuicConnection conn = connections.get(peerId);
             if (conn != null && conn.isConnected()) {
                 LogUtils.verbose(TAG, "Reuse connection " + peerId.toBase58());
+                connectionManager.touch(conn);
                 return conn;
             } else {
                 removeConnection(peerId);
@@ -550,81 +572,32 @@ public class LiteHost {
 
         boolean ipv6 = inet6.get();
         List<Multiaddr> multiaddrs = prepareAddresses(peerId);
-        multiaddrs.sort((o1, o2) -> o2.getHost().compareTo(o1.getHost()));
         int addresses = multiaddrs.size();
         if (addresses == 0) {
-            LogUtils.debug(TAG, "Run false" + " Success " + success + " " +
-                    "Failure " + failure + " " + "/p2p/" + peerId.toBase58() + " " +
+            LogUtils.debug(TAG, "Run false" + " Success " + success.get() + " " +
+                    "Failure " + failure.get() + " " + "/p2p/" + peerId.toBase58() + " " +
                     "No address");
             throw new ConnectionIssue();
         }
 
-
+        List<Multiaddr> direct = new ArrayList<>();
+        List<Multiaddr> relayed = new ArrayList<>();
         for (Multiaddr address : multiaddrs) {
-
-
             // sort out IPv6 Addresses in case of non ipv6 network
             if (!ipv6 && address.has(Protocol.Type.IP6)) {
                 continue;
             }
+            if (address.has(Protocol.Type.P2PCIRCUIT)) {
+                relayed.add(address);
+            } else {
+                direct.add(address);
+            }
+        }
 
-            boolean relayConnection = address.has(Protocol.Type.P2PCIRCUIT);
-
-
-            long start = System.currentTimeMillis();
-            boolean run = false;
-            try {
-
-                if (relayConnection) {
-                    PeerId relayId = PeerId.fromBase58(
-                            address.getStringComponent(Protocol.Type.IPFS));
-                    String host = address.getHost();
-                    int port = address.getPort();
-                    boolean ip4 = address.isIP4();
-                    String pre = "/ip6/";
-                    if (ip4) {
-                        pre = "/ip4/";
-                    }
-
-                    Multiaddr multiaddr = new Multiaddr(pre.concat(host).concat("/udp/").
-                            concat(String.valueOf(port)).concat("/quic"));
-
-                    addToAddressBook(relayId,
-                            Collections.singletonList(multiaddr), false);
-
-                    // keepAlive is set to false, only for own relays we are
-                    // keeping the connection
-                    QuicConnection conn = connect(relayId, IPFS.CONNECT_TIMEOUT,
-                            IPFS.MAX_STREAMS, IPFS.MESSAGE_SIZE_MAX, true,
-                            false);
-
-                    RelayConnection relayConn = RelayConnection.createRelayConnection(
-                            conn, peerId, this);
-
-                    handleConnection(relayConn, peerId);
-
-                    if (keepConnection) {
-                        connections.put(peerId, relayConn);
-                    }
-                    run = true;
-                    return relayConn;
-                }
-
-                QuicClientConnectionImpl conn = QuicClientConnectionImpl.newBuilder()
-                        .version(Version.IETF_draft_29)
-                        .noServerCertificateCheck()
-                        .clientCertificate(selfSignedCertificate.cert())
-                        .clientCertificateKey(selfSignedCertificate.key())
-                        .host(address.getHost())
-                        .port(address.getPort())
-                        .build();
-
-                Objects.requireNonNull(conn);
-
-                conn.connect(timeout, IPFS.APRN,
-                        new TransportParameters(IPFS.GRACE_PERIOD, initialMaxStreamData,
-                                initialMaxStreams, IPFS.MIN_STREAMS), null);
-
+        if (!direct.isEmpty()) {
+            QuicClientConnectionImpl conn = dial(peerId, direct, timeout,
+                    initialMaxStreams, initialMaxStreamData);
+            if (conn != null) {
                 if (keepAlive) {
                     conn.keepAlive(IPFS.KEEP_ALIVE_TIMEOUT, IPFS.PING_INTERVAL);
                 }
@@ -638,32 +611,65 @@ public class LiteHost {
 
                 if (keepConnection) {
                     connections.put(peerId, conn);
+                    connectionManager.connected(conn);
+                }
+                return conn;
+            }
+        }
+
+        for (Multiaddr address : relayed) {
+
+            long start = System.currentTimeMillis();
+            boolean run = false;
+            try {
+                PeerId relayId = PeerId.fromBase58(
+                        address.getStringComponent(Protocol.Type.IPFS));
+                String host = address.getHost();
+                int port = address.getPort();
+                boolean ip4 = address.isIP4();
+                String pre = "/ip6/";
+                if (ip4) {
+                    pre = "/ip4/";
                 }
 
+                Multiaddr multiaddr = new Multiaddr(pre.concat(host).concat("/udp/").
+                        concat(String.valueOf(port)).concat("/quic"));
+
+                addToAddressBook(relayId,
+                        Collections.singletonList(multiaddr), false);
+
+                // keepAlive is set to false, only for own relays we are
+                // keeping the connection
+                QuicConnection conn = connect(relayId, IPFS.CONNECT_TIMEOUT,
+                        IPFS.MAX_STREAMS, IPFS.MESSAGE_SIZE_MAX, true,
+                        false);
+
+                RelayConnection relayConn = RelayConnection.createRelayConnection(
+                        conn, peerId, this);
+
+                handleConnection(relayConn, peerId);
+
+                if (keepConnection) {
+                    connections.put(peerId, relayConn);
+                    connectionManager.connected(relayConn);
+                }
                 run = true;
-                return conn;
-            } catch (TimeoutException ignore) {
-                // nothing to do here
+                return relayConn;
             } catch (Throwable throwable) {
                 LogUtils.error(TAG, throwable);
             } finally {
                 if (run) {
-                    success++;
+                    success.incrementAndGet();
+                    peerStore.success(peerId, address, System.currentTimeMillis() - start);
                 } else {
-                    failure++;
+                    failure.incrementAndGet();
+                    peerStore.failure(peerId, address);
                 }
 
-                if (relayConnection) {
-                    LogUtils.error(TAG, "Run " + run + " Relay Connection Success " + success + " " +
-                            "Failure " + failure +
-                            " Peer " + peerId.toBase58() + " " +
-                            address + " " + (System.currentTimeMillis() - start));
-                } else {
-                    LogUtils.debug(TAG, "Run " + run + " Success " + success + " " +
-                            "Failure " + failure +
-                            " Peer " + peerId.toBase58() + " " +
-                            address + " " + (System.currentTimeMillis() - start));
-                }
+                LogUtils.error(TAG, "Run " + run + " Relay Connection Success " + success.get() + " " +
+                        "Failure " + failure.get() +
+                        " Peer " + peerId.toBase58() + " " +
+                        address + " " + (System.currentTimeMillis() - start));
             }
         }
 
@@ -671,6 +677,161 @@ public class LiteHost {
 
     }
 
+    // Happy eyeballs (RFC 8305) over the direct addresses. The attempts are started one
+    // after another with a short delay, ipv6 and ipv4 addresses alternating, a failed
+    // attempt starts the next one at once. The first connection wins, the attempts
+    // which are still running are aborted and late connections are closed.
+    @Nullable
+    private QuicClientConnectionImpl dial(@NonNull PeerId peerId,
+                                          @NonNull List<Multiaddr> addresses, int timeout,
+                                          int initialMaxStreams, int initialMaxStreamData) {
+
+        List<Multiaddr> ordered = interleave(addresses);
+        LinkedBlockingQueue<Attempt> results = new LinkedBlockingQueue<>();
+        List<QuicClientConnectionImpl> running = new ArrayList<>(); // guarded by itself
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        int started = 0;
+        int finished = 0;
+        long next = 0L;
+        QuicClientConnectionImpl winner = null;
+        try {
+            while (winner == null && finished < ordered.size()) {
+                long now = System.currentTimeMillis();
+                boolean more = started < ordered.size();
+                if (more && (started == finished || (IPFS.DIAL_PARALLEL && now >= next))) {
+                    Multiaddr address = ordered.get(started);
+                    dialers.execute(() -> attempt(peerId, address, timeout,
+                            initialMaxStreams, initialMaxStreamData, running, done, results));
+                    started++;
+                    next = now + IPFS.DIAL_STAGGER_DELAY;
+                    continue;
+                }
+                long wait = more && IPFS.DIAL_PARALLEL ? Math.max(next - now, 1) :
+                        TimeUnit.SECONDS.toMillis(2L * timeout);
+                Attempt attempt = results.poll(wait, TimeUnit.MILLISECONDS);
+                if (attempt == null) {
+                    if (more && IPFS.DIAL_PARALLEL) {
+                        continue;
+                    }
+                    break; // the attempts are expected to time out by themselves
+                }
+                finished++;
+                winner = attempt.conn;
+            }
+        } catch (InterruptedException ignore) {
+            // the losers are aborted below
+        } finally {
+            synchronized (running) {
+                done.set(true);
+                for (QuicClientConnectionImpl conn : running) {
+                    if (conn != winner) {
+                        conn.abortConnection(null);
+                    }
+                }
+            }
+            Attempt late;
+            while ((late = results.poll()) != null) {
+                if (late.conn != null && late.conn != winner) {
+                    late.conn.close();
+                }
+            }
+        }
+        return winner;
+    }
+
+    private void attempt(@NonNull PeerId peerId, @NonNull Multiaddr address, int timeout,
+                         int initialMaxStreams, int initialMaxStreamData,
+                         @NonNull List<QuicClientConnectionImpl> running,
+                         @NonNull AtomicBoolean done, @NonNull BlockingQueue<Attempt> results) {
+        long start = System.currentTimeMillis();
+        boolean run = false;
+        QuicClientConnectionImpl conn = null;
+        try {
+            conn = QuicClientConnectionImpl.newBuilder()
+                    .version(Version.IETF_draft_29)
+                    .noServerCertificateCheck()
+                    .clientCertificate(selfSignedCertificate.cert())
+                    .clientCertificateKey(selfSignedCertificate.key())
+                    .host(address.getHost())
+                    .port(address.getPort())
+                    .build();
+
+            Objects.requireNonNull(conn);
+
+            synchronized (running) {
+                if (done.get()) {
+                    // releases the socket of the connection
+                    conn.abortConnection(null);
+                    return;
+                }
+                running.add(conn);
+            }
+
+            conn.connect(timeout, IPFS.APRN,
+                    new TransportParameters(IPFS.GRACE_PERIOD, initialMaxStreamData,
+                            initialMaxStreams, IPFS.MIN_STREAMS), null);
+            run = true;
+        } catch (TimeoutException ignore) {
+            // nothing to do here
+        } catch (Throwable throwable) {
+            if (!done.get()) {
+                LogUtils.error(TAG, throwable);
+            }
+        } finally {
+            if (run) {
+                success.incrementAndGet();
+                peerStore.success(peerId, address, System.currentTimeMillis() - start);
+            } else if (!done.get()) {
+                // an aborted attempt is not a failure of the address
+                failure.incrementAndGet();
+                peerStore.failure(peerId, address);
+            }
+            LogUtils.debug(TAG, "Run " + run + " Success " + success.get() + " " +
+                    "Failure " + failure.get() +
+                    " Peer " + peerId.toBase58() + " " +
+                    address + " " + (System.currentTimeMillis() - start));
+
+            synchronized (running) {
+                if (run && done.get()) {
+                    conn.close();
+                } else {
+                    results.add(new Attempt(run ? conn : null));
+                }
+            }
+        }
+    }
+
+    // the addresses of both families alternate, starting with the family of the best
+    @NonNull
+    private static List<Multiaddr> interleave(@NonNull List<Multiaddr> addresses) {
+        if (addresses.isEmpty()) {
+            return addresses;
+        }
+        List<Multiaddr> ip6 = new ArrayList<>();
+        List<Multiaddr> ip4 = new ArrayList<>();
+        for (Multiaddr address : addresses) {
+            if (address.has(Protocol.Type.IP6)) {
+                ip6.add(address);
+            } else {
+                ip4.add(address);
+            }
+        }
+        boolean first6 = addresses.get(0).has(Protocol.Type.IP6);
+        List<Multiaddr> first = first6 ? ip6 : ip4;
+        List<Multiaddr> second = first6 ? ip4 : ip6;
+        List<Multiaddr> result = new ArrayList<>();
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                result.add(first.get(i));
+            }
+            if (i < second.size()) {
+                result.add(second.get(i));
+            }
+        }
+        return result;
+    }
+
     public void push(@NonNull QuicConnection connection, @NonNull byte[] content) {
         try {
             Objects.requireNonNull(connection);
@@ -750,6 +911,7 @@ public class LiteHost {
         } finally {
             server = null;
         }
+        peerStore.flush();
     }
 
 
@@ -802,4 +964,13 @@ public class LiteHost {
         return port;
     }
 
+
+    private static class Attempt {
+        @Nullable
+        private final QuicClientConnectionImpl conn;
+
+        Attempt(@Nullable QuicClientConnectionImpl conn) {
+            this.conn = conn;
+        }
+    }
 }
@@ -0,0 +1,298 @@
+package threads.lite.host;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import threads.lite.IPFS;
+import threads.lite.LogUtils;
+import threads.lite.cid.Multiaddr;
+import threads.lite.cid.PeerId;
+
+// The addresses of the peers with an expiry time and the history of the dials, the last
+// success, the last failure and the round trip time of the connect. A successful dial
+// extends the expiry of the address, so the addresses which worked survive a restart.
+// The store is saved to a file after a delay, the first success of an address and the
+// shutdown of the host are saved at once. Expired addresses are dropped on load and save.
+public class PeerStore {
+
+    private static final String TAG = PeerStore.class.getSimpleName();
+    private static final int VERSION = 1;
+    private static final long SAVE_DELAY = 30; // seconds
+    private static final double RTT_WEIGHT = 0.25; // weight of a new rtt sample
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final HashMap<PeerId, HashMap<Multiaddr, Entry>> peers = new HashMap<>();
+    @NonNull
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+    @Nullable
+    private ScheduledFuture<?> scheduled = null;
+
+    private PeerStore(@NonNull File file) {
+        this.file = file;
+    }
+
+    @NonNull
+    public static PeerStore createPeerStore(@NonNull File file) {
+        PeerStore peerStore = new PeerStore(file);
+        peerStore.load();
+        return peerStore;
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            if (inputStream.readInt() != VERSION) {
+                return;
+            }
+            int size = inputStream.readInt();
+            for (int i = 0; i < size; i++) {
+                PeerId peerId = PeerId.fromBase58(inputStream.readUTF());
+                Multiaddr address = new Multiaddr(inputStream.readUTF());
+                Entry entry = new Entry(inputStream.readLong());
+                entry.lastSuccess = inputStream.readLong();
+                entry.lastFailure = inputStream.readLong();
+                entry.rtt = inputStream.readLong();
+                if (entry.expires > now) {
+                    getEntries(peerId).put(address, entry);
+                }
+            }
+        } catch (Throwable throwable) {
+            LogUtils.error(TAG, throwable);
+        }
+    }
+
+    private void save() {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        synchronized (this) {
+            scheduled = null;
+            expire();
+            try (DataOutputStream outputStream = new DataOutputStream(
+                    new FileOutputStream(temp))) {
+                int size = 0;
+                for (HashMap<Multiaddr, Entry> entries : peers.values()) {
+                    size += entries.size();
+                }
+                outputStream.writeInt(VERSION);
+                outputStream.writeInt(size);
+                for (Map.Entry<PeerId, HashMap<Multiaddr, Entry>> peer : peers.entrySet()) {
+                    for (Map.Entry<Multiaddr, Entry> address : peer.getValue().entrySet()) {
+                        Entry entry = address.getValue();
+                        outputStream.writeUTF(peer.getKey().toBase58());
+                        outputStream.writeUTF(address.getKey().toString());
+                        outputStream.writeLong(entry.expires);
+                        outputStream.writeLong(entry.lastSuccess);
+                        outputStream.writeLong(entry.lastFailure);
+                        outputStream.writeLong(entry.rtt);
+                    }
+                }
+            } catch (Throwable throwable) {
+                LogUtils.error(TAG, throwable);
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                LogUtils.error(TAG, "Peer store file not replaced");
+            }
+        }
+    }
+
+    // holds the lock
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<HashMap<Multiaddr, Entry>> peerIterator = peers.values().iterator();
+        while (peerIterator.hasNext()) {
+            HashMap<Multiaddr, Entry> entries = peerIterator.next();
+            entries.values().removeIf(entry -> entry.expires <= now);
+            if (entries.isEmpty()) {
+                peerIterator.remove();
+            }
+        }
+    }
+
+    // holds the lock
+    private void modified() {
+        if (scheduled == null) {
+            scheduled = executor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    // holds the lock, the pending save is done now
+    private void modifiedNow() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduled = executor.schedule(this::save, 0, TimeUnit.SECONDS);
+    }
+
+    // saves the pending changes before it returns
+    public void flush() {
+        synchronized (this) {
+            if (scheduled == null) {
+                return;
+            }
+            scheduled.cancel(false);
+        }
+        save();
+    }
+
+    @NonNull
+    private HashMap<Multiaddr, Entry> getEntries(@NonNull PeerId peerId) {
+        HashMap<Multiaddr, Entry> entries = peers.get(peerId);
+        if (entries == null) {
+            entries = new HashMap<>();
+            peers.put(peerId, entries);
+        }
+        return entries;
+    }
+
+    // the expiry of a known address is only extended, never shortened
+    public synchronized void addAddresses(@NonNull PeerId peerId,
+                                          @NonNull Collection<Multiaddr> addresses,
+                                          long ttl) {
+        if (addresses.isEmpty()) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + ttl;
+        HashMap<Multiaddr, Entry> entries = getEntries(peerId);
+        for (Multiaddr address : addresses) {
+            Entry entry = entries.get(address);
+            if (entry == null) {
+                entries.put(address, new Entry(expires));
+            } else {
+                entry.expires = Math.max(entry.expires, expires);
+            }
+        }
+        modified();
+    }
+
+    // the addresses which are not expired, the historically best first
+    @NonNull
+    public synchronized List<Multiaddr> getAddresses(@NonNull PeerId peerId) {
+        List<Multiaddr> result = new ArrayList<>();
+        HashMap<Multiaddr, Entry> entries = peers.get(peerId);
+        if (entries == null) {
+            return result;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expires <= now) {
+                iterator.remove();
+            }
+        }
+        if (entries.isEmpty()) {
+            peers.remove(peerId);
+            return result;
+        }
+        result.addAll(entries.keySet());
+        sort(peerId, result);
+        return result;
+    }
+
+    public synchronized boolean hasAddresses(@NonNull PeerId peerId) {
+        return !getAddresses(peerId).isEmpty();
+    }
+
+    // Addresses which connected last time come first, the faster ones before the
+    // slower ones, then the addresses which were never dialed, then the failed ones
+    // with the oldest failure first. The order of equal addresses is kept.
+    public synchronized void sort(@NonNull PeerId peerId, @NonNull List<Multiaddr> addresses) {
+        HashMap<Multiaddr, Entry> entries = peers.get(peerId);
+        if (entries == null) {
+            return;
+        }
+        addresses.sort((o1, o2) -> {
+            Entry e1 = entries.get(o1);
+            Entry e2 = entries.get(o2);
+            int rank = Integer.compare(rank(e1), rank(e2));
+            if (rank != 0 || e1 == null || e2 == null) {
+                return rank;
+            }
+            if (rank(e1) == 0) {
+                return Long.compare(e1.rtt, e2.rtt);
+            }
+            return Long.compare(e1.lastFailure, e2.lastFailure);
+        });
+    }
+
+    private int rank(@Nullable Entry entry) {
+        if (entry == null || (entry.lastSuccess == 0 && entry.lastFailure == 0)) {
+            return 1;
+        }
+        if (entry.lastSuccess >= entry.lastFailure) {
+            return 0;
+        }
+        return 2;
+    }
+
+    public synchronized void success(@NonNull PeerId peerId, @NonNull Multiaddr address,
+                                     long rtt) {
+        long now = System.currentTimeMillis();
+        HashMap<Multiaddr, Entry> entries = getEntries(peerId);
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry(0L);
+            entries.put(address, entry);
+        }
+        boolean first = entry.lastSuccess == 0L;
+        entry.expires = Math.max(entry.expires, now + IPFS.PEER_STORE_CONNECTED_TTL);
+        entry.rtt = entry.rtt == 0 ? rtt :
+                Math.round(entry.rtt * (1 - RTT_WEIGHT) + rtt * RTT_WEIGHT);
+        entry.lastSuccess = now;
+        if (first) {
+            modifiedNow();
+        } else {
+            modified();
+        }
+    }
+
+    public synchronized void failure(@NonNull PeerId peerId, @NonNull Multiaddr address) {
+        HashMap<Multiaddr, Entry> entries = peers.get(peerId);
+        if (entries == null) {
+            return;
+        }
+        Entry entry = entries.get(address);
+        if (entry != null) {
+            entry.lastFailure = System.currentTimeMillis();
+            modified();
+        }
+    }
+
+    public synchronized void clear() {
+        peers.clear();
+        modified();
+    }
+
+    private static class Entry {
+        long expires;
+        long lastSuccess = 0L;
+        long lastFailure = 0L;
+        long rtt = 0L; // milliseconds
+
+        Entry(long expires) {
+            this.expires = expires;
+        }
+    }
+}
@@ -14,7 +14,6 @@ import identify.pb.IdentifyOuterClass;
 import relay.pb.Relay;
 import threads.lite.IPFS;
 import threads.lite.LogUtils;
-import threads.lite.bitswap.BitSwapMessage;
 import threads.lite.core.ProtocolIssue;
 import threads.lite.utils.DataHandler;
 
@@ -125,11 +124,8 @@ public class StreamHandler {
                     if (protocol != null) {
                         switch (protocol) {
                             case IPFS.BITSWAP_PROTOCOL: {
-                                BitSwapMessage response = host.message(quicStream,
+                                host.message(quicStream,
                                         MessageOuterClass.Message.parseFrom(message));
-                                if (response != null) {
-                                    outputStream.write(DataHandler.encode(response.ToProtoV1()));
-                                }
                                 closeOutputStream();
                                 break;
                             }
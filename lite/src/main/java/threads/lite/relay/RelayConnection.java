@@ -57,6 +57,11 @@ public class RelayConnection implements QuicConnection {
 
     }
 
+    @NonNull
+    public QuicConnection getRelay() {
+        return conn;
+    }
+
     @Override
     public void setMaxAllowedBidirectionalStreams(int max) {
         conn.setMaxAllowedBidirectionalStreams(max);
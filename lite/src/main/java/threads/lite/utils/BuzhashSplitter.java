@@ -0,0 +1,53 @@
+package threads.lite.utils;
+
+import androidx.annotation.NonNull;
+
+// Buzhash splitter with the parameters and the cut loop of the go-ipfs buzhash chunker,
+// a cyclic polynomial hash over a window of 32 bytes, a chunk ends when the lowest 17
+// bits of the hash are zero, so chunks are 128 KiB to 512 KiB with an average of ~256 KiB.
+// Note: the chunks only match go-ipfs with its bytehash table, TABLE is a placeholder
+// until that table is embedded, the splitter is not registered as a chunker before.
+public class BuzhashSplitter extends ContentSplitter {
+
+    public static final int MIN = 128 << 10;
+    public static final int MAX = 512 << 10;
+    private static final int MASK = (1 << 17) - 1;
+    private static final int WINDOW = 32;
+    private static final int[] TABLE = new int[256];
+
+    static {
+        // placeholder (splitmix64), to be replaced by the go-ipfs-chunker bytehash table
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < TABLE.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            TABLE[i] = (int) (z ^ (z >>> 31));
+        }
+    }
+
+    public BuzhashSplitter(@NonNull WriterStream reader) {
+        super(reader, MIN, MAX);
+    }
+
+    @Override
+    int cut(@NonNull byte[] buf, int length) {
+        int state = 0;
+        for (int i = MIN - WINDOW; i < MIN; i++) {
+            state = Integer.rotateLeft(state, 1) ^ TABLE[buf[i] & 0xFF];
+        }
+        // rotating a 32 bit state by the window size is the identity, so the
+        // outgoing byte is removed by its plain table value
+        int i = MIN - WINDOW;
+        int last = length - WINDOW - 1;
+        for (; i <= last; i++) {
+            if ((state & MASK) == 0) {
+                break;
+            }
+            state = Integer.rotateLeft(state, 1) ^ TABLE[buf[i] & 0xFF]
+                    ^ TABLE[buf[i + WINDOW] & 0xFF];
+        }
+        return i + WINDOW;
+    }
+}
@@ -0,0 +1,359 @@
+package threads.lite.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import threads.lite.IPFS;
+import threads.lite.cid.Cid;
+import threads.lite.core.Closeable;
+import threads.lite.core.ClosedException;
+import threads.lite.dag.BlockService;
+import threads.lite.dag.DagService;
+import threads.lite.format.BasicBlock;
+import threads.lite.format.BlockStore;
+import threads.lite.format.BufferedBlockStore;
+import threads.lite.format.NavigableIPLDNode;
+import threads.lite.format.NavigableNode;
+import threads.lite.format.Node;
+import threads.lite.format.Visitor;
+import threads.lite.format.Walker;
+
+// CAR v1 archives, a varint framed dag-cbor header with the roots, followed by varint
+// framed sections of cid and block data. The writer walks the dag depth first and only
+// keeps the path of the walk, the reader stores the blocks while reading, so the memory
+// does not depend on the size of the dag.
+public class Car {
+
+    private static final int VERSION = 1;
+    private static final int MAX_SECTION_SIZE = IPFS.BLOCK_SIZE_LIMIT + 1024;
+    private static final int MAX_HEADER_SIZE = 1024 * 1024;
+    private static final int RECENT_CIDS = 4096; // duplicate blocks which are skipped
+    private static final int CID_TAG = 42;
+
+    public static void write(@NonNull Closeable closeable, @NonNull BlockStore bs,
+                             @NonNull Cid root, @NonNull OutputStream os)
+            throws ClosedException, IOException {
+
+        BlockService blockservice = BlockService.createBlockService(bs, new OfflineExchange(bs));
+        DagService dagService = DagService.createDagService(blockservice);
+
+        Node node = dagService.getNode(closeable, root, true);
+        Objects.requireNonNull(node);
+
+        writeHeader(os, root);
+
+        // the dag may contain the same block several times (e.g. equal chunks of a file),
+        // blocks which were written recently are not written again
+        Map<Cid, Boolean> recent = new LinkedHashMap<Cid, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Cid, Boolean> eldest) {
+                return size() > RECENT_CIDS;
+            }
+        };
+
+        Walker walker = Walker.NewWalker(NavigableIPLDNode.NewNavigableIPLDNode(node, dagService));
+        Visitor visitor = new Visitor(walker.getRoot());
+        NavigableNode visited;
+        while ((visited = walker.next(closeable, visitor)) != null) {
+            Node visitedNode = NavigableIPLDNode.extractIPLDNode(visited);
+            Cid cid = visitedNode.getCid();
+            if (recent.put(cid, Boolean.TRUE) == null) {
+                byte[] key = cid.bytes();
+                byte[] data = visitedNode.getRawData();
+                writeVarint(os, key.length + data.length);
+                os.write(key);
+                os.write(data);
+            }
+        }
+        os.flush();
+    }
+
+    // the blocks are verified and stored, the roots of the archive are returned
+    @NonNull
+    public static List<Cid> read(@NonNull Closeable closeable, @NonNull BlockStore bs,
+                                 @NonNull InputStream is) throws ClosedException, IOException {
+
+        List<Cid> roots = readHeader(is);
+
+        BufferedBlockStore buffer = new BufferedBlockStore(bs,
+                IPFS.WRITE_BATCH_BLOCKS, IPFS.WRITE_BATCH_SIZE);
+        try {
+            byte[] section = new byte[MAX_SECTION_SIZE];
+            long length;
+            while ((length = readVarint(is, true)) >= 0) {
+                if (closeable.isClosed()) {
+                    throw new ClosedException();
+                }
+                if (length > MAX_SECTION_SIZE) {
+                    throw new IOException("car section too large");
+                }
+                readFully(is, section, (int) length);
+                int cidLength = cidLength(section, (int) length);
+                Cid cid = new Cid(Arrays.copyOf(section, cidLength));
+                byte[] data = Arrays.copyOfRange(section, cidLength, (int) length);
+                if (!Objects.equals(cid.getPrefix().sum(data), cid)) {
+                    throw new IOException("car block does not match its cid");
+                }
+                buffer.putBlock(BasicBlock.createBlockWithCid(cid, data));
+            }
+        } finally {
+            buffer.flush();
+        }
+        return roots;
+    }
+
+    // {"roots": [cid], "version": 1} in canonical dag-cbor, the keys are ordered by length
+    private static void writeHeader(@NonNull OutputStream os, @NonNull Cid root)
+            throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeCborHead(header, 5, 2);
+        writeCborText(header, "roots");
+        writeCborHead(header, 4, 1);
+        writeCborHead(header, 6, CID_TAG);
+        // the cid is prefixed by the multibase identity prefix
+        byte[] key = cid(root);
+        writeCborHead(header, 2, key.length);
+        header.write(key);
+        writeCborText(header, "version");
+        writeCborHead(header, 0, VERSION);
+
+        byte[] bytes = header.toByteArray();
+        writeVarint(os, bytes.length);
+        os.write(bytes);
+    }
+
+    @NonNull
+    private static byte[] cid(@NonNull Cid cid) {
+        byte[] bytes = cid.bytes();
+        byte[] key = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, key, 1, bytes.length);
+        return key;
+    }
+
+    @NonNull
+    private static List<Cid> readHeader(@NonNull InputStream is) throws IOException {
+        long length = readVarint(is, false);
+        if (length <= 0 || length > MAX_HEADER_SIZE) {
+            throw new IOException("invalid car header");
+        }
+        byte[] bytes = new byte[(int) length];
+        readFully(is, bytes, bytes.length);
+        CborReader reader = new CborReader(bytes);
+
+        List<Cid> roots = new ArrayList<>();
+        long version = -1;
+        long entries = reader.expect(5);
+        for (long i = 0; i < entries; i++) {
+            String key = reader.readText();
+            if (Objects.equals(key, "roots")) {
+                long count = reader.expect(4);
+                for (long j = 0; j < count; j++) {
+                    if (reader.expect(6) != CID_TAG) {
+                        throw new IOException("invalid car root");
+                    }
+                    byte[] cid = reader.readBytes();
+                    if (cid.length < 2 || cid[0] != 0) {
+                        throw new IOException("invalid car root");
+                    }
+                    roots.add(new Cid(Arrays.copyOfRange(cid, 1, cid.length)));
+                }
+            } else if (Objects.equals(key, "version")) {
+                version = reader.expect(0);
+            } else {
+                throw new IOException("unknown car header " + key);
+            }
+        }
+        if (version != VERSION) {
+            throw new IOException("car version not supported");
+        }
+        return roots;
+    }
+
+    // the length of the cid at the start of the section
+    private static int cidLength(@NonNull byte[] section, int length) throws IOException {
+        int[] offset = new int[1];
+        // a cid version 0 is a sha2-256 multihash
+        if (length >= 34 && section[0] == 0x12 && section[1] == 0x20) {
+            return 34;
+        }
+        long version = readVarint(section, length, offset);
+        if (version != 1) {
+            throw new IOException("invalid cid version");
+        }
+        readVarint(section, length, offset); // codec
+        readVarint(section, length, offset); // hash type
+        long hashLength = readVarint(section, length, offset);
+        long cidLength = offset[0] + hashLength;
+        if (cidLength > length) {
+            throw new IOException("invalid cid");
+        }
+        return (int) cidLength;
+    }
+
+    private static long readVarint(@NonNull byte[] bytes, int length, @NonNull int[] offset)
+            throws IOException {
+        long x = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (offset[0] >= length) {
+                throw new EOFException();
+            }
+            int b = bytes[offset[0]++] & 0xFF;
+            x |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return x;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    // -1 when the stream ends before the varint and eof is allowed
+    private static long readVarint(@NonNull InputStream is, boolean eof) throws IOException {
+        long x = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = is.read();
+            if (b < 0) {
+                if (eof && shift == 0) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            x |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return x;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    private static void writeVarint(@NonNull OutputStream os, long value) throws IOException {
+        while (value >= 0x80) {
+            os.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        os.write((int) value);
+    }
+
+    private static void readFully(@NonNull InputStream is, @NonNull byte[] buf, int length)
+            throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = is.read(buf, total, length - total);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            total += read;
+        }
+    }
+
+    private static void writeCborHead(@NonNull OutputStream os, int major, long value)
+            throws IOException {
+        int type = major << 5;
+        if (value < 24) {
+            os.write(type | (int) value);
+        } else if (value < 0x100) {
+            os.write(type | 24);
+            os.write((int) value);
+        } else if (value < 0x10000) {
+            os.write(type | 25);
+            os.write((int) (value >>> 8));
+            os.write((int) value);
+        } else {
+            os.write(type | 26);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                os.write((int) (value >>> shift));
+            }
+        }
+    }
+
+    private static void writeCborText(@NonNull OutputStream os, @NonNull String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeCborHead(os, 3, bytes.length);
+        os.write(bytes);
+    }
+
+    // the subset of cbor which is used by the car header
+    private static class CborReader {
+        private final byte[] bytes;
+        private int offset = 0;
+
+        CborReader(@NonNull byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int next() throws IOException {
+            if (offset >= bytes.length) {
+                throw new EOFException();
+            }
+            return bytes[offset++] & 0xFF;
+        }
+
+        // the argument of the next item, which must be of the given major type
+        long expect(int major) throws IOException {
+            int head = next();
+            if ((head >>> 5) != major) {
+                throw new IOException("invalid car header");
+            }
+            int info = head & 0x1F;
+            if (info < 24) {
+                return info;
+            }
+            int size;
+            switch (info) {
+                case 24:
+                    size = 1;
+                    break;
+                case 25:
+                    size = 2;
+                    break;
+                case 26:
+                    size = 4;
+                    break;
+                case 27:
+                    size = 8;
+                    break;
+                default:
+                    throw new IOException("invalid car header");
+            }
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | next();
+            }
+            return value;
+        }
+
+        @NonNull
+        byte[] readBytes() throws IOException {
+            long length = expect(2);
+            if (length > bytes.length - offset) {
+                throw new EOFException();
+            }
+            byte[] result = Arrays.copyOfRange(bytes, offset, offset + (int) length);
+            offset += (int) length;
+            return result;
+        }
+
+        @NonNull
+        String readText() throws IOException {
+            long length = expect(3);
+            if (length > bytes.length - offset) {
+                throw new EOFException();
+            }
+            String result = new String(bytes, offset, (int) length, StandardCharsets.UTF_8);
+            offset += (int) length;
+            return result;
+        }
+    }
+}
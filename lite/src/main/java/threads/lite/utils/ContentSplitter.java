@@ -0,0 +1,63 @@
+package threads.lite.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import threads.lite.format.Reader;
+
+// Base of the content defined splitters, the input is read into a reusable buffer of
+// the maximum chunk size and the subclass finds the chunk boundary within it. The
+// boundaries only depend on the content, so an insert in a file only changes the
+// chunks around it and the other chunks are deduplicated.
+abstract class ContentSplitter implements Splitter {
+
+    @NonNull
+    private final WriterStream reader;
+    @NonNull
+    private final byte[] buf;
+    private final int min;
+    private int length = 0;
+    private boolean eof = false;
+
+    ContentSplitter(@NonNull WriterStream reader, int min, int max) {
+        this.reader = reader;
+        this.min = min;
+        this.buf = new byte[max];
+    }
+
+    // the length of the next chunk, the buffer contains more than min bytes
+    abstract int cut(@NonNull byte[] buf, int length);
+
+    @Override
+    public Reader reader() {
+        return reader;
+    }
+
+    @Nullable
+    @Override
+    public byte[] nextBytes() {
+        while (!eof && length < buf.length) {
+            int read = reader.read(buf, length, buf.length - length);
+            if (read < 0) {
+                eof = true;
+            } else {
+                length += read;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        int size = length <= min ? length : cut(buf, length);
+        byte[] chunk = Arrays.copyOf(buf, size);
+        length -= size;
+        System.arraycopy(buf, size, buf, 0, length);
+        return chunk;
+    }
+
+    @Override
+    public boolean done() {
+        return eof && length == 0;
+    }
+}
@@ -2,6 +2,8 @@ package threads.lite.utils;
 
 import androidx.annotation.NonNull;
 
+import com.google.protobuf.ByteString;
+
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -14,7 +16,7 @@ public class ProgressStream extends InputStream {
     private final Progress mProgress;
     private final long size;
     private int position = 0;
-    private byte[] data = null;
+    private ByteString data = null;
     private int remember = 0;
     private long totalRead = 0L;
 
@@ -43,14 +45,14 @@ public class ProgressStream extends InputStream {
             if (data == null) {
                 return -1;
             }
-            if (position < data.length) {
-                byte value = data[position];
+            if (position < data.size()) {
+                byte value = data.byteAt(position);
                 position++;
                 return (value & 0xff);
             } else {
                 invalidate();
                 if (preLoad()) {
-                    byte value = data[position];
+                    byte value = data.byteAt(position);
                     position++;
                     return (value & 0xff);
                 } else {
@@ -73,7 +75,7 @@ public class ProgressStream extends InputStream {
 
         data = mReader.loadNextData();
         if (data != null) {
-            int read = data.length;
+            int read = data.size();
             totalRead += read;
             if (mProgress.doProgress()) {
                 if (size > 0) {
@@ -0,0 +1,96 @@
+package threads.lite.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+// Rabin fingerprint splitter with the parameters of the go-ipfs rabin chunker, the
+// irreducible polynomial 17437180132763653 over a window of 64 bytes, a chunk ends when
+// the lowest log2(avg) bits of the fingerprint are zero, bounded by min and max
+public class RabinSplitter extends ContentSplitter {
+
+    public static final int AVG = 256 << 10;
+    private static final long POLYNOMIAL = 17437180132763653L;
+    private static final int WINDOW = 64;
+    private static final int DEGREE = degree(POLYNOMIAL);
+    private static final int SHIFT = DEGREE - 8;
+    // out[b] removes byte b when it slides out of the window, mod[b] reduces the
+    // fingerprint by the 8 bits above the degree
+    private static final long[] OUT = new long[256];
+    private static final long[] MOD = new long[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            long hash = appendByte(0, b);
+            for (int i = 0; i < WINDOW - 1; i++) {
+                hash = appendByte(hash, 0);
+            }
+            OUT[b] = hash;
+            MOD[b] = mod(((long) b) << DEGREE) | (((long) b) << DEGREE);
+        }
+    }
+
+    private final int min;
+    private final int max;
+    private final long mask;
+    private final byte[] window = new byte[WINDOW];
+    private int position;
+    private long digest;
+
+    public RabinSplitter(@NonNull WriterStream reader) {
+        this(reader, AVG / 3, AVG, AVG + AVG / 2);
+    }
+
+    public RabinSplitter(@NonNull WriterStream reader, int min, int avg, int max) {
+        super(reader, min, max);
+        if (min < WINDOW || min >= avg || avg >= max) {
+            throw new RuntimeException("invalid rabin parameters");
+        }
+        this.min = min;
+        this.max = max;
+        this.mask = (Long.highestOneBit(avg) - 1);
+    }
+
+    private static int degree(long pol) {
+        return 63 - Long.numberOfLeadingZeros(pol);
+    }
+
+    // remainder of the division by the polynomial in GF(2)
+    private static long mod(long value) {
+        int degree;
+        while ((degree = degree(value)) >= DEGREE) {
+            value ^= POLYNOMIAL << (degree - DEGREE);
+        }
+        return value;
+    }
+
+    private static long appendByte(long hash, int b) {
+        return mod((hash << 8) | b);
+    }
+
+    private void slide(int b) {
+        int out = window[position] & 0xFF;
+        window[position] = (byte) b;
+        position = (position + 1) % WINDOW;
+        digest ^= OUT[out];
+        int index = (int) (digest >>> SHIFT);
+        digest = ((digest << 8) | b) ^ MOD[index];
+    }
+
+    @Override
+    int cut(@NonNull byte[] buf, int length) {
+        Arrays.fill(window, (byte) 0);
+        position = 0;
+        digest = 0;
+        slide(1);
+        // the bytes before min - WINDOW can not influence a boundary
+        for (int i = min - WINDOW; i < length; i++) {
+            slide(buf[i] & 0xFF);
+            int count = i + 1;
+            if (count >= min && ((digest & mask) == 0 || count >= max)) {
+                return count;
+            }
+        }
+        return length;
+    }
+}
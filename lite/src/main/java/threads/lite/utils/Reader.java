@@ -3,6 +3,8 @@ package threads.lite.utils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.protobuf.ByteString;
+
 import java.util.Objects;
 
 import threads.lite.bitswap.Exchange;
@@ -36,26 +38,29 @@ public class Reader {
         return new Reader(closeable, dagReader);
     }
 
+    // reads up to size bytes at the offset, less only at the end of the data
     public int readNextData(long offset, int size, byte[] data) throws ClosedException {
+        return read(offset, data, 0, size);
+    }
+
+    public int read(long offset, @NonNull byte[] buffer, int off, int length)
+            throws ClosedException {
         seek(offset);
-        byte[] bytes = loadNextData();
-        if (bytes != null) {
-            int min = Math.min(bytes.length, size);
-            System.arraycopy(bytes, 0, data, 0, min);
-            if (min < size) {
-                int remain = size - min;
-                bytes = loadNextData();
-                if (bytes != null) {
-                    System.arraycopy(bytes, 0, data, min, remain);
-                    return size;
-                } else {
-                    return min;
-                }
+        int read = 0;
+        while (read < length) {
+            ByteString bytes = loadNextData();
+            if (bytes == null || bytes.isEmpty()) {
+                break;
+            }
+            int min = Math.min(bytes.size(), length - read);
+            bytes.copyTo(buffer, 0, off + read, min);
+            read += min;
+            if (min < bytes.size()) {
+                // the rest of the leaf is returned by the next read
+                seek(offset + read);
             }
-            return min;
         }
-
-        return 0;
+        return read;
     }
 
     public void seek(long position) throws ClosedException {
@@ -63,7 +68,7 @@ public class Reader {
     }
 
     @Nullable
-    public byte[] loadNextData() throws ClosedException {
+    public ByteString loadNextData() throws ClosedException {
         try {
             return dagReader.loadNextData(closeable);
         } finally {
@@ -74,4 +79,8 @@ public class Reader {
     public long getSize() {
         return this.dagReader.getSize();
     }
+
+    public long getPosition() {
+        return dagReader.getPosition();
+    }
 }
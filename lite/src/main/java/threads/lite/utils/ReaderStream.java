@@ -1,71 +1,140 @@
 package threads.lite.utils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.protobuf.ByteString;
 
 import java.io.IOException;
 import java.io.InputStream;
-
-import threads.lite.core.ClosedException;
-
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// The next leaf is loaded in the background while the current one is consumed, the
+// reader is only used by one thread at a time, as a load is always awaited before the
+// reader is used again. Skips seek the reader, within a leaf they do not load anything.
 public class ReaderStream extends InputStream {
     private static final String TAG = ReaderStream.class.getSimpleName();
+    private static final ExecutorService READ_AHEAD = Executors.newCachedThreadPool();
     private final Reader reader;
     private int position = 0;
-    private byte[] data = null;
+    private ByteString data = null;
+    @Nullable
+    private Future<ByteString> next = null;
+    // offset of the data within the file
+    private long offset = 0L;
+    private boolean eof = false;
 
     public ReaderStream(@NonNull Reader reader) {
         this.reader = reader;
     }
 
 
+    // the bytes which can be read without waiting for a block
     @Override
     public int available() {
-        long size = reader.getSize();
-        return (int) size;
+        if (data == null) {
+            return 0;
+        }
+        return data.size() - position;
     }
 
 
     @Override
     public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        byte value = data.byteAt(position);
+        position++;
+        return (value & 0xff);
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && fill()) {
+            int min = Math.min(data.size() - position, len - read);
+            data.copyTo(b, position, off + read, min);
+            position += min;
+            read += min;
+        }
+        return read == 0 ? -1 : read;
+    }
 
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long current = offset + position;
+        long target = Math.min(current + n, reader.getSize());
+        if (data != null && target - offset < data.size()) {
+            position = (int) (target - offset);
+            return target - current;
+        }
         try {
-            if (data == null) {
-                invalidate();
-                preLoad();
-            }
-            if (data == null) {
-                return -1;
-            }
-            if (position < data.length) {
-                byte value = data[position];
-                position++;
-                return (value & 0xff);
-            } else {
-                invalidate();
-                if (preLoad()) {
-                    byte value = data[position];
-                    position++;
-                    return (value & 0xff);
-                } else {
-                    return -1;
-                }
-            }
+            await();
+            reader.seek(target);
         } catch (Throwable e) {
             throw new IOException(e);
         }
-    }
-
-    private void invalidate() {
-        position = 0;
         data = null;
+        position = 0;
+        offset = target;
+        eof = false;
+        return target - current;
     }
 
-
-    private boolean preLoad() throws ClosedException {
-        data = reader.loadNextData();
-        return data != null;
+    @Override
+    public void close() {
+        try {
+            await();
+        } catch (Throwable ignore) {
+            // the pending data is not used anymore
+        }
     }
 
+    // false at the end of the data
+    private boolean fill() throws IOException {
+        while (data == null || position >= data.size()) {
+            if (eof) {
+                return false;
+            }
+            if (data != null) {
+                offset += data.size();
+            }
+            position = 0;
+            try {
+                data = next != null ? await() : reader.loadNextData();
+            } catch (Throwable e) {
+                throw new IOException(e);
+            }
+            if (data == null || data.isEmpty()) {
+                data = null;
+                eof = true;
+                return false;
+            }
+            next = READ_AHEAD.submit(reader::loadNextData);
+        }
+        return true;
+    }
 
+    @Nullable
+    private ByteString await() throws ExecutionException, InterruptedException {
+        Future<ByteString> future = next;
+        next = null;
+        if (future == null) {
+            return null;
+        }
+        return future.get();
+    }
 }
@@ -5,6 +5,7 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -15,18 +16,18 @@ import threads.lite.core.Closeable;
 import threads.lite.core.ClosedException;
 import threads.lite.dag.BlockService;
 import threads.lite.dag.DagService;
-import threads.lite.data.Storage;
+import threads.lite.dag.HamtShard;
 import threads.lite.format.BlockStore;
 import threads.lite.format.Link;
 import threads.lite.format.Node;
 import threads.lite.format.NodeGetter;
+import threads.lite.format.ProtoNode;
 
 
 public class Resolver {
 
-    public static Node resolveNode(@NonNull Closeable closeable, @NonNull Storage storage,
+    public static Node resolveNode(@NonNull Closeable closeable, @NonNull BlockStore bs,
                                    @NonNull Exchange exchange, @NonNull String path) throws ClosedException {
-        BlockStore bs = BlockStore.createBlockStore(storage);
         BlockService blockservice = BlockService.createBlockService(bs, exchange);
         DagService dags = DagService.createDagService(blockservice);
         return Resolver.resolveNode(closeable, dags, Path.create(path));
@@ -81,7 +82,17 @@ public class Resolver {
 
         while (p.size() > 0) {
 
-            Pair<Link, List<String>> resolveOnce = node.resolveLink(p);
+            Pair<Link, List<String>> resolveOnce;
+            if (HamtShard.isHamtShard(node)) {
+                // only the shards on the path of the name are fetched
+                Link link = HamtShard.find(closeable, dag, (ProtoNode) node, p.get(0));
+                if (link == null) {
+                    throw new RuntimeException(p.get(0) + " not found");
+                }
+                resolveOnce = Pair.create(link, new ArrayList<>(p.subList(1, p.size())));
+            } else {
+                resolveOnce = node.resolveLink(p);
+            }
             Link lnk = resolveOnce.first;
             List<String> rest = resolveOnce.second;
 
@@ -0,0 +1,53 @@
+package threads.lite.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+import threads.lite.format.Reader;
+
+// Slices the input into chunks of a fixed size, only the last chunk is shorter
+public class SizeSplitter implements Splitter {
+
+    @NonNull
+    private final WriterStream reader;
+    private final int size;
+
+    public SizeSplitter(@NonNull WriterStream reader, int size) {
+        this.reader = reader;
+        this.size = size;
+    }
+
+    @Override
+    public Reader reader() {
+        return reader;
+    }
+
+    // the chunk is filled completely, short reads of the input do not produce short
+    // chunks, so the cids do not depend on the input stream, the buffer is only copied
+    // for the last chunk
+    @Override
+    public byte[] nextBytes() {
+        byte[] buf = new byte[size];
+        int length = 0;
+        while (length < size) {
+            int read = reader.read(buf, length, size - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length == 0) {
+            return null;
+        } else if (length < size) {
+            return Arrays.copyOf(buf, length);
+        } else {
+            return buf;
+        }
+    }
+
+    @Override
+    public boolean done() {
+        return reader.done();
+    }
+}
@@ -1,8 +1,55 @@
 package threads.lite.utils;
 
+import androidx.annotation.NonNull;
+
+import threads.lite.IPFS;
 import threads.lite.format.Reader;
 
 public interface Splitter {
+
+    // chunker names as in go-ipfs: size, size-[bytes], rabin, rabin-[avg],
+    // rabin-[min]-[avg]-[max]
+    @NonNull
+    static Splitter createSplitter(@NonNull WriterStream reader, @NonNull String chunker) {
+        String[] parts = chunker.split("-");
+        try {
+            switch (parts[0]) {
+                case "size":
+                    if (parts.length == 1) {
+                        return new SizeSplitter(reader, IPFS.CHUNK_SIZE);
+                    } else if (parts.length == 2) {
+                        int size = Integer.parseInt(parts[1]);
+                        if (size > 0 && size <= IPFS.BLOCK_SIZE_LIMIT) {
+                            return new SizeSplitter(reader, size);
+                        }
+                    }
+                    break;
+                case "rabin":
+                    if (parts.length == 1) {
+                        return new RabinSplitter(reader);
+                    } else if (parts.length == 2) {
+                        int avg = Integer.parseInt(parts[1]);
+                        if (avg + avg / 2 <= IPFS.BLOCK_SIZE_LIMIT) {
+                            return new RabinSplitter(reader, avg / 3, avg, avg + avg / 2);
+                        }
+                    } else if (parts.length == 4) {
+                        int max = Integer.parseInt(parts[3]);
+                        if (max <= IPFS.BLOCK_SIZE_LIMIT) {
+                            return new RabinSplitter(reader, Integer.parseInt(parts[1]),
+                                    Integer.parseInt(parts[2]), max);
+                        }
+                    }
+                    break;
+                case "buzhash":
+                    // the chunks must match go-ipfs, see BuzhashSplitter
+                    throw new RuntimeException("chunker buzhash is not supported yet");
+            }
+        } catch (NumberFormatException ignore) {
+            // handled below
+        }
+        throw new RuntimeException("invalid chunker " + chunker);
+    }
+
     Reader reader();
 
     byte[] nextBytes();
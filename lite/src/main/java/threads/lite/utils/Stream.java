@@ -6,6 +6,7 @@ import androidx.annotation.NonNull;
 import java.util.List;
 import java.util.Objects;
 
+import threads.lite.IPFS;
 import threads.lite.bitswap.BitSwap;
 import threads.lite.bitswap.Exchange;
 import threads.lite.cid.Cid;
@@ -18,8 +19,9 @@ import threads.lite.dag.BlockService;
 import threads.lite.dag.DagService;
 import threads.lite.dag.Directory;
 import threads.lite.dag.FSNode;
-import threads.lite.data.Storage;
+import threads.lite.dag.MutableDirectory;
 import threads.lite.format.BlockStore;
+import threads.lite.format.BufferedBlockStore;
 import threads.lite.format.Link;
 import threads.lite.format.Node;
 import threads.lite.format.ProtoNode;
@@ -28,9 +30,8 @@ import threads.lite.format.ProtoNode;
 public class Stream {
 
 
-    public static Adder getFileAdder(@NonNull Storage storage) {
+    public static Adder getFileAdder(@NonNull BlockStore bs) {
 
-        BlockStore bs = BlockStore.createBlockStore(storage);
         Exchange exchange = new OfflineExchange(bs);
         BlockService blockservice = BlockService.createBlockService(bs, exchange);
         DagService dagService = DagService.createDagService(blockservice);
@@ -60,25 +61,24 @@ public class Stream {
 
         threads.lite.format.Node node = Resolver.resolveNode(closeable, dagService, cid);
         Objects.requireNonNull(node);
-        Directory dir = Directory.createDirectoryFromNode(node);
+        Directory dir = Directory.createDirectoryFromNode(dagService, node);
         return dir != null;
     }
 
-    public static Cid createEmptyDir(@NonNull Storage storage) {
+    public static Cid createEmptyDir(@NonNull BlockStore bs) {
 
-        Adder fileAdder = getFileAdder(storage);
+        Adder fileAdder = getFileAdder(bs);
 
         Node nd = fileAdder.createEmptyDir();
         return nd.getCid();
     }
 
 
-    public static Cid addLinkToDir(@NonNull Storage storage, @NonNull Closeable closeable,
+    public static Cid addLinkToDir(@NonNull BlockStore bs, @NonNull Closeable closeable,
                                    @NonNull Cid dir, @NonNull String name, @NonNull Cid link) throws ClosedException {
 
-        Adder fileAdder = getFileAdder(storage);
+        Adder fileAdder = getFileAdder(bs);
 
-        BlockStore bs = BlockStore.createBlockStore(storage);
         Exchange exchange = new OfflineExchange(bs);
         BlockService blockservice = BlockService.createBlockService(bs, exchange);
         DagService dagService = DagService.createDagService(blockservice);
@@ -87,24 +87,39 @@ public class Stream {
         Objects.requireNonNull(dirNode);
         threads.lite.format.Node linkNode = Resolver.resolveNode(closeable, dagService, link);
         Objects.requireNonNull(linkNode);
-        Node nd = fileAdder.addLinkToDir(dirNode, name, linkNode);
+        Node nd = fileAdder.addLinkToDir(closeable, dirNode, name, linkNode);
         return nd.getCid();
 
     }
 
-    public static Cid removeLinkFromDir(@NonNull Storage storage, @NonNull Closeable closeable,
+    @NonNull
+    public static MutableDirectory openDirectory(@NonNull BlockStore bs,
+                                                 @NonNull Closeable closeable,
+                                                 @NonNull Cid dir) throws ClosedException {
+
+        Adder fileAdder = getFileAdder(bs);
+
+        Exchange exchange = new OfflineExchange(bs);
+        BlockService blockservice = BlockService.createBlockService(bs, exchange);
+        DagService dagService = DagService.createDagService(blockservice);
+
+        threads.lite.format.Node dirNode = Resolver.resolveNode(closeable, dagService, dir);
+        Objects.requireNonNull(dirNode);
+        return fileAdder.openDirectory(dirNode);
+    }
+
+    public static Cid removeLinkFromDir(@NonNull BlockStore bs, @NonNull Closeable closeable,
                                         @NonNull Cid dir, @NonNull String name) throws ClosedException {
 
-        Adder fileAdder = getFileAdder(storage);
+        Adder fileAdder = getFileAdder(bs);
 
-        BlockStore bs = BlockStore.createBlockStore(storage);
         Exchange exchange = new OfflineExchange(bs);
         BlockService blockservice = BlockService.createBlockService(bs, exchange);
         DagService dagService = DagService.createDagService(blockservice);
 
         threads.lite.format.Node dirNode = Resolver.resolveNode(closeable, dagService, dir);
         Objects.requireNonNull(dirNode);
-        Node nd = fileAdder.removeChild(dirNode, name);
+        Node nd = fileAdder.removeChild(closeable, dirNode, name);
         return nd.getCid();
 
     }
@@ -119,7 +134,7 @@ public class Stream {
 
         threads.lite.format.Node node = Resolver.resolveNode(closeable, dagService, cid);
         Objects.requireNonNull(node);
-        Directory dir = Directory.createDirectoryFromNode(node);
+        Directory dir = Directory.createDirectoryFromNode(dagService, node);
 
         if (dir == null) {
             lsFromLinks(closeable, dagService, node.getLinks(), resolveChildren);
@@ -131,11 +146,20 @@ public class Stream {
 
 
     @NonNull
-    public static Cid write(@NonNull Storage storage, @NonNull WriterStream writerStream) {
-
-        Adder fileAdder = getFileAdder(storage);
-        Node node = fileAdder.addReader(writerStream);
-        return node.getCid();
+    public static Cid write(@NonNull BlockStore bs, @NonNull WriterStream writerStream,
+                            boolean balanced, @NonNull String chunker) {
+
+        BufferedBlockStore buffer = new BufferedBlockStore(bs,
+                IPFS.WRITE_BATCH_BLOCKS, IPFS.WRITE_BATCH_SIZE);
+        try {
+            Adder fileAdder = getFileAdder(buffer);
+            fileAdder.Balanced = balanced;
+            fileAdder.Chunker = chunker;
+            Node node = fileAdder.addReader(writerStream);
+            return node.getCid();
+        } finally {
+            buffer.flush();
+        }
     }
 
     private static void lsFromLinksAsync(@NonNull LinkCloseable closeable,
@@ -143,7 +167,7 @@ public class Stream {
                                          @NonNull Directory dir,
                                          boolean resolveChildren) throws ClosedException {
 
-        List<Link> links = dir.getNode().getLinks();
+        List<Link> links = dir.getLinks(closeable);
         for (Link link : links) {
             processLink(closeable, dagService, link, resolveChildren);
         }
@@ -178,7 +202,7 @@ public class Stream {
                 Node linkNode = link.getNode(closeable, dagService);
                 if (linkNode instanceof ProtoNode) {
                     ProtoNode pn = (ProtoNode) linkNode;
-                    FSNode d = FSNode.createFSNodeFromBytes(pn.getData());
+                    FSNode d = FSNode.createFSNodeFromBytes(pn.getDataString());
                     int type;
                     switch (d.Type()) {
                         case File:
@@ -188,10 +212,10 @@ public class Stream {
                             type = threads.lite.utils.Link.Raw;
                             break;
                         case Directory:
+                        case HAMTShard:
                             type = threads.lite.utils.Link.Dir;
                             break;
                         case Symlink:
-                        case HAMTShard:
                         case Metadata:
                         default:
                             type = threads.lite.utils.Link.Unknown;